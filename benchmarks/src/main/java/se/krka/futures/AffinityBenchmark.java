@@ -0,0 +1,137 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the scenario from {@code WhereDoesItRunTest}, where the last stage should run on the apple executor,
+ * for a batch of pipelines started from a runner executor.
+ *
+ * The usual workaround is to make every stage async, which always goes through the executor queue.
+ * Affinity mode gets the same guarantee, but only dispatches when the stage is not already on the executor.
+ * The results are per stage, counting {@code withAffinity} as a stage of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class AffinityBenchmark {
+
+  private static final int PIPELINES = 1000;
+
+  // supplyAsync, two thenApplyAsync and thenAcceptAsync
+  private static final int ALL_ASYNC_STAGES = 4;
+
+  // withAffinity and four transforms
+  private static final int AFFINITY_STAGES = 5;
+
+  private ExecutorService runner;
+  private ExecutorService banana;
+  private ExecutorService apple;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    runner = newExecutor("runner");
+    banana = newExecutor("banana");
+    apple = newExecutor("apple");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    runner.shutdown();
+    banana.shutdown();
+    apple.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINES * ALL_ASYNC_STAGES)
+  public void allAsync() throws Exception {
+    final Batch batch = new Batch();
+    for (int i = 0; i < PIPELINES; i++) {
+      runner.execute(() -> CompletableFuture
+              .supplyAsync(AffinityBenchmark::currThread, banana)
+              .thenApplyAsync(s -> s + " -> " + currThread(), apple)
+              .thenApplyAsync(s -> s + " -> " + currThread(), apple)
+              .thenAcceptAsync(batch::onDone, apple));
+    }
+    batch.done.join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINES * AFFINITY_STAGES)
+  public void simpleFutureAffinity() throws Exception {
+    final Batch batch = new Batch();
+    for (int i = 0; i < PIPELINES; i++) {
+      runner.execute(() -> SimpleFuture.completedVoid()
+              .withAffinity(banana)
+              .thenApply(v -> currThread())
+              .thenApplyAsync(s -> s + " -> " + currThread(), apple)
+              .thenApply(s -> s + " -> " + currThread())
+              .thenApply(batch::onDone));
+    }
+    batch.done.join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINES * AFFINITY_STAGES)
+  public void pFutureAffinity() throws Exception {
+    final Batch batch = new Batch();
+    for (int i = 0; i < PIPELINES; i++) {
+      runner.execute(() -> PFuture.completedVoid()
+              .withAffinity(banana)
+              .map(v -> currThread())
+              .mapAsync(s -> s + " -> " + currThread(), apple)
+              .map(s -> s + " -> " + currThread())
+              .map(batch::onDone));
+    }
+    batch.done.join();
+  }
+
+  private static String currThread() {
+    return Thread.currentThread().getName();
+  }
+
+  private static ExecutorService newExecutor(String name) {
+    return Executors.newSingleThreadExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Completes once every pipeline in the batch has reached its last stage on the apple executor.
+   */
+  private static final class Batch {
+    private final AtomicInteger remaining = new AtomicInteger(PIPELINES);
+    private final SimpleFuture<Void> done = new SimpleFuture<>();
+
+    private Void onDone(String path) {
+      if (!path.endsWith("apple")) {
+        done.completeExceptionally(new IllegalStateException("Last stage ran on the wrong thread: " + path));
+      } else if (remaining.decrementAndGet() == 0) {
+        done.complete(null);
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package se.krka.futures;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs a chain of ten transforms either synchronously on the completing thread, or each one on a single-threaded
+ * executor, and waits for the result. {@link PFuture} has no blocking join, so it waits through
+ * {@link PFuture#toCompletableFuture()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class AsyncStageBenchmark {
+
+  private static final int STAGES = 10;
+  private static final Function<Integer, Integer> INCREMENT = x -> x + 1;
+  private static final com.google.common.base.Function<Integer, Integer> GUAVA_INCREMENT = x -> x + 1;
+
+  @Param({"false", "true"})
+  public boolean async;
+
+  private ExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "benchmark-executor");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public Integer completableFuture() {
+    final CompletableFuture<Integer> root = new CompletableFuture<>();
+    CompletableFuture<Integer> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = async ? future.thenApplyAsync(INCREMENT, executor) : future.thenApply(INCREMENT);
+    }
+    root.complete(0);
+    return future.join();
+  }
+
+  @Benchmark
+  public Integer simpleFuture() throws Exception {
+    final SimpleFuture<Integer> root = new SimpleFuture<>();
+    SimpleFuture<Integer> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = async ? future.thenApplyAsync(INCREMENT, executor) : future.thenApply(INCREMENT);
+    }
+    root.complete(0);
+    return future.join();
+  }
+
+  @Benchmark
+  public Integer pFuture() {
+    final Promise<Integer> promise = Promise.newPromise();
+    PFuture<Integer> future = promise.getFuture();
+    for (int i = 0; i < STAGES; i++) {
+      future = async ? future.mapAsync(INCREMENT, executor) : future.map(INCREMENT);
+    }
+    promise.complete(0);
+    return future.toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public Integer guava() throws Exception {
+    final SettableFuture<Integer> root = SettableFuture.create();
+    ListenableFuture<Integer> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = Futures.transform(future, GUAVA_INCREMENT, async ? executor : MoreExecutors.directExecutor());
+    }
+    root.set(0);
+    return future.get();
+  }
+}
@@ -0,0 +1,20 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the regular JMH main, but always with the GC profiler,
+ * which also reports the bytes allocated per operation as {@code gc.alloc.rate.norm}.
+ */
+public class BenchmarkMain {
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+  }
+}
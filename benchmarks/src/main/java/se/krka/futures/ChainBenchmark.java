@@ -0,0 +1,82 @@
+package se.krka.futures;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Builds a chain of transforms on an incomplete future, completes it and reads the result at the end of the chain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ChainBenchmark {
+
+  private static final Function<Integer, Integer> INCREMENT = x -> x + 1;
+  private static final com.google.common.base.Function<Integer, Integer> GUAVA_INCREMENT = x -> x + 1;
+
+  @Param({"10", "100", "1000"})
+  public int depth;
+
+  @Benchmark
+  public Integer completableFuture() {
+    final CompletableFuture<Integer> root = new CompletableFuture<>();
+    CompletableFuture<Integer> future = root;
+    for (int i = 0; i < depth; i++) {
+      future = future.thenApply(INCREMENT);
+    }
+    root.complete(0);
+    return future.join();
+  }
+
+  @Benchmark
+  public Integer simpleFuture() throws Exception {
+    final SimpleFuture<Integer> root = new SimpleFuture<>();
+    SimpleFuture<Integer> future = root;
+    for (int i = 0; i < depth; i++) {
+      future = future.thenApply(INCREMENT);
+    }
+    root.complete(0);
+    return future.join();
+  }
+
+  @Benchmark
+  public Integer pFuture() {
+    final Promise<Integer> promise = Promise.newPromise();
+    PFuture<Integer> future = promise.getFuture();
+    for (int i = 0; i < depth; i++) {
+      future = future.map(INCREMENT);
+    }
+    promise.complete(0);
+    return future.getValue();
+  }
+
+  @Benchmark
+  public Integer guava() throws Exception {
+    final SettableFuture<Integer> root = SettableFuture.create();
+    ListenableFuture<Integer> future = root;
+    for (int i = 0; i < depth; i++) {
+      future = Futures.transform(future, GUAVA_INCREMENT, MoreExecutors.directExecutor());
+    }
+    root.set(0);
+    return Futures.getDone(future);
+  }
+}
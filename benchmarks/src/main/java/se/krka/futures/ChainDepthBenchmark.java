@@ -0,0 +1,56 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Completes the head of a long synchronous chain, to show how the cost per stage changes as the chain grows.
+ * Each operation is a whole chain, so divide by the chain length for the cost per stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ChainDepthBenchmark {
+
+  private static final Function<String, String> IDENTITY = s -> s;
+
+  @Param({"10", "1000", "100000"})
+  public int chainLength;
+
+  @Benchmark
+  public String simpleFuture() throws Exception {
+    final SimpleFuture<String> root = new SimpleFuture<>();
+    SimpleFuture<String> future = root;
+    for (int i = 0; i < chainLength; i++) {
+      future = future.thenApply(IDENTITY);
+    }
+    root.complete("");
+    return future.join();
+  }
+
+  @Benchmark
+  public String completableFuture() {
+    final CompletableFuture<String> root = new CompletableFuture<>();
+    CompletableFuture<String> future = root;
+    for (int i = 0; i < chainLength; i++) {
+      future = future.thenApply(IDENTITY);
+    }
+    root.complete("");
+    return future.join();
+  }
+}
@@ -0,0 +1,66 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Pushes a failure through a chain of 20 stages and recovers at the end, so each operation is one failure.
+ * {@link CompletableFuture} wraps the failure in a {@link java.util.concurrent.CompletionException} at the first
+ * stage and passes that wrapper on, while {@link SimpleFuture} and {@link PFuture} pass the original exception on
+ * without wrapping it. At 10k errors per second, each failure has a budget of 100 us.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FailurePathBenchmark {
+
+  private static final int STAGES = 20;
+  private static final Function<Integer, Integer> INCREMENT = x -> x + 1;
+
+  @Benchmark
+  public Integer completableFuture() {
+    final CompletableFuture<Integer> root = new CompletableFuture<>();
+    CompletableFuture<Integer> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(INCREMENT);
+    }
+    root.completeExceptionally(new RuntimeException("backend error"));
+    return future.exceptionally(t -> -1).join();
+  }
+
+  @Benchmark
+  public Integer simpleFuture() throws Exception {
+    final SimpleFuture<Integer> root = new SimpleFuture<>();
+    SimpleFuture<Integer> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(INCREMENT);
+    }
+    root.completeExceptionally(new RuntimeException("backend error"));
+    return future.exceptionally(t -> -1).join();
+  }
+
+  @Benchmark
+  public Integer pFuture() {
+    final Promise<Integer> promise = Promise.newPromise();
+    PFuture<Integer> future = promise.getFuture();
+    for (int i = 0; i < STAGES; i++) {
+      future = future.map(INCREMENT);
+    }
+    promise.completeExceptionally(new RuntimeException("backend error"));
+    return future.exceptionally(t -> -1).getValue();
+  }
+}
@@ -0,0 +1,89 @@
+package se.krka.futures;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.spotify.futures.CompletableFutures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Derives {@code width} stages from a single incomplete future, joins them all with allAsList and completes the source.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FanOutFanInBenchmark {
+
+  private static final Function<Integer, Integer> INCREMENT = x -> x + 1;
+  private static final com.google.common.base.Function<Integer, Integer> GUAVA_INCREMENT = x -> x + 1;
+
+  @Param({"4", "64"})
+  public int width;
+
+  @Benchmark
+  public List<Integer> completableFuture() {
+    final CompletableFuture<Integer> source = new CompletableFuture<>();
+    final List<CompletableFuture<Integer>> stages = new ArrayList<>(width);
+    for (int i = 0; i < width; i++) {
+      stages.add(source.thenApply(INCREMENT));
+    }
+    final CompletableFuture<List<Integer>> all = CompletableFutures.allAsList(stages);
+    source.complete(0);
+    return all.join();
+  }
+
+  @Benchmark
+  public List<Integer> simpleFuture() throws Exception {
+    final SimpleFuture<Integer> source = new SimpleFuture<>();
+    final List<SimpleFuture<Integer>> stages = new ArrayList<>(width);
+    for (int i = 0; i < width; i++) {
+      stages.add(source.thenApply(INCREMENT));
+    }
+    final SimpleFuture<List<Integer>> all = SimpleFuture.allAsList(stages);
+    source.complete(0);
+    return all.join();
+  }
+
+  @Benchmark
+  public List<Integer> pFuture() {
+    final Promise<Integer> promise = Promise.newPromise();
+    final List<PFuture<Integer>> stages = new ArrayList<>(width);
+    for (int i = 0; i < width; i++) {
+      stages.add(promise.getFuture().map(INCREMENT));
+    }
+    final PFuture<List<Integer>> all = PFuture.allAsList(stages);
+    promise.complete(0);
+    return all.getValue();
+  }
+
+  @Benchmark
+  public List<Integer> guava() throws Exception {
+    final SettableFuture<Integer> source = SettableFuture.create();
+    final List<ListenableFuture<Integer>> stages = new ArrayList<>(width);
+    for (int i = 0; i < width; i++) {
+      stages.add(Futures.transform(source, GUAVA_INCREMENT, MoreExecutors.directExecutor()));
+    }
+    final ListenableFuture<List<Integer>> all = Futures.allAsList(stages);
+    source.set(0);
+    return Futures.getDone(all);
+  }
+}
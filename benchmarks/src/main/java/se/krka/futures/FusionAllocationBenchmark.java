@@ -0,0 +1,67 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares chains of identity transforms, with and without fusing the transforms into a single stage.
+ * The results are per transform, so {@code gc.alloc.rate.norm} is the bytes allocated per transform.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(FusionAllocationBenchmark.STAGES)
+public class FusionAllocationBenchmark {
+
+  static final int STAGES = 1000;
+  private static final Function<String, String> IDENTITY = s -> s;
+
+  @Benchmark
+  public String simpleFuture() throws Exception {
+    final SimpleFuture<String> root = new SimpleFuture<>();
+    SimpleFuture<String> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(IDENTITY);
+    }
+    root.complete("");
+    return future.join();
+  }
+
+  @Benchmark
+  public String simpleFutureFused() throws Exception {
+    final SimpleFuture<String> root = new SimpleFuture<>();
+    SimpleFuture.Fused<String> fused = root.fuse();
+    for (int i = 0; i < STAGES; i++) {
+      fused = fused.thenApply(IDENTITY);
+    }
+    final SimpleFuture<String> future = fused.toFuture();
+    root.complete("");
+    return future.join();
+  }
+
+  @Benchmark
+  public String completableFuture() {
+    final CompletableFuture<String> root = new CompletableFuture<>();
+    CompletableFuture<String> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(IDENTITY);
+    }
+    root.complete("");
+    return future.join();
+  }
+}
@@ -0,0 +1,82 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Measures chains of {@link PFuture#map}, compared to a read-only wrapper around a {@link CompletableFuture},
+ * which is how {@link PFuture} used to be implemented. The results are per stage, so {@code gc.alloc.rate.norm}
+ * is the bytes allocated per stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(PFutureAllocationBenchmark.STAGES)
+public class PFutureAllocationBenchmark {
+
+  static final int STAGES = 1000;
+  private static final Function<String, String> IDENTITY = s -> s;
+
+  @Benchmark
+  public String pFuture() {
+    final Promise<String> promise = Promise.newPromise();
+    PFuture<String> future = promise.getFuture();
+    for (int i = 0; i < STAGES; i++) {
+      future = future.map(IDENTITY);
+    }
+    promise.complete("");
+    return future.getValue();
+  }
+
+  @Benchmark
+  public String wrapped() {
+    final CompletableFuture<String> producer = new CompletableFuture<>();
+    Wrapped<String> future = new Wrapped<>(producer);
+    for (int i = 0; i < STAGES; i++) {
+      future = future.map(IDENTITY);
+    }
+    producer.complete("");
+    return future.future.join();
+  }
+
+  @Benchmark
+  public String completableFuture() {
+    final CompletableFuture<String> root = new CompletableFuture<>();
+    CompletableFuture<String> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(IDENTITY);
+    }
+    root.complete("");
+    return future.join();
+  }
+
+  /**
+   * One wrapper and one {@link CompletableFuture} per stage, like the old {@link PFuture}.
+   */
+  private static class Wrapped<T> {
+    private final CompletableFuture<T> future;
+
+    private Wrapped(CompletableFuture<T> future) {
+      this.future = future;
+    }
+
+    private <R> Wrapped<R> map(Function<T, R> function) {
+      return new Wrapped<>(future.thenApply(function));
+    }
+  }
+}
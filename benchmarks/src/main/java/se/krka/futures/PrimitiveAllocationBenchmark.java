@@ -0,0 +1,55 @@
+package se.krka.futures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares chains of long increments, using boxed values in {@link SimpleFuture} and primitive values
+ * in {@link LongFuture}. The results are per stage, so {@code gc.alloc.rate.norm} is the bytes allocated per stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(PrimitiveAllocationBenchmark.STAGES)
+public class PrimitiveAllocationBenchmark {
+
+  static final int STAGES = 1000;
+
+  // Large enough to never hit the Long cache
+  private static final long START = 1L << 40;
+
+  @Benchmark
+  public long boxed() throws Exception {
+    final SimpleFuture<Long> root = new SimpleFuture<>();
+    SimpleFuture<Long> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(x -> x + 1);
+    }
+    root.complete(START);
+    return future.join();
+  }
+
+  @Benchmark
+  public long primitive() throws Exception {
+    final LongFuture root = new LongFuture();
+    LongFuture future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.map(x -> x + 1);
+    }
+    root.complete(START);
+    return future.join();
+  }
+}
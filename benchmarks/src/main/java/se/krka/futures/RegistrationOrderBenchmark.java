@@ -0,0 +1,83 @@
+package se.krka.futures;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Adds a transform to a future that is either already completed, or completed after the transform is registered.
+ * Transforms on completed futures can often skip registering a callback entirely.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RegistrationOrderBenchmark {
+
+  private static final Function<String, String> IDENTITY = s -> s;
+  private static final com.google.common.base.Function<String, String> GUAVA_IDENTITY = s -> s;
+
+  @Param({"true", "false"})
+  public boolean completeBefore;
+
+  @Benchmark
+  public String completableFuture() {
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    if (completeBefore) {
+      future.complete("");
+    }
+    final CompletableFuture<String> stage = future.thenApply(IDENTITY);
+    future.complete("");
+    return stage.join();
+  }
+
+  @Benchmark
+  public String simpleFuture() throws Exception {
+    final SimpleFuture<String> future = new SimpleFuture<>();
+    if (completeBefore) {
+      future.complete("");
+    }
+    final SimpleFuture<String> stage = future.thenApply(IDENTITY);
+    future.complete("");
+    return stage.join();
+  }
+
+  @Benchmark
+  public String pFuture() {
+    final Promise<String> promise = Promise.newPromise();
+    if (completeBefore) {
+      promise.complete("");
+    }
+    final PFuture<String> stage = promise.getFuture().map(IDENTITY);
+    promise.complete("");
+    return stage.getValue();
+  }
+
+  @Benchmark
+  public String guava() throws Exception {
+    final SettableFuture<String> future = SettableFuture.create();
+    if (completeBefore) {
+      future.set("");
+    }
+    final ListenableFuture<String> stage = Futures.transform(future, GUAVA_IDENTITY, MoreExecutors.directExecutor());
+    future.set("");
+    return Futures.getDone(stage);
+  }
+}
@@ -0,0 +1,63 @@
+package se.krka.futures;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Creates an incomplete future, adds a single transform, completes it and reads the result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SingleStageBenchmark {
+
+  private static final Function<String, String> IDENTITY = s -> s;
+  private static final com.google.common.base.Function<String, String> GUAVA_IDENTITY = s -> s;
+
+  @Benchmark
+  public String completableFuture() {
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    final CompletableFuture<String> stage = future.thenApply(IDENTITY);
+    future.complete("");
+    return stage.join();
+  }
+
+  @Benchmark
+  public String simpleFuture() throws Exception {
+    final SimpleFuture<String> future = new SimpleFuture<>();
+    final SimpleFuture<String> stage = future.thenApply(IDENTITY);
+    future.complete("");
+    return stage.join();
+  }
+
+  @Benchmark
+  public String pFuture() {
+    final Promise<String> promise = Promise.newPromise();
+    final PFuture<String> stage = promise.getFuture().map(IDENTITY);
+    promise.complete("");
+    return stage.getValue();
+  }
+
+  @Benchmark
+  public String guava() throws Exception {
+    final SettableFuture<String> future = SettableFuture.create();
+    final ListenableFuture<String> stage = Futures.transform(future, GUAVA_IDENTITY, MoreExecutors.directExecutor());
+    future.set("");
+    return Futures.getDone(stage);
+  }
+}
@@ -0,0 +1,562 @@
+package se.krka.futures;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The completion core shared by {@link SimpleFuture}, {@link PFuture} and the primitive futures.
+ *
+ * A future is also a callback that completes itself with the result it is given, so a stage that just passes on
+ * the result of another future can be pushed directly onto that future's stack of callbacks.
+ * Subclasses override {@link #accept(Result)} to turn the future into a stage that transforms the result first.
+ */
+abstract class AbstractFuture<T> extends Callback<Object> {
+  /**
+   * Number of times a joining thread checks the state before it parks.
+   */
+  private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 7 : 0;
+
+  private static final ThreadLocal<Trampoline> TRAMPOLINE = ThreadLocal.withInitial(Trampoline::new);
+
+  // Field handles instead of atomic wrapper objects, so a future is a single allocation
+  private static final VarHandle STATE;
+  private static final VarHandle DEPENDENTS;
+  private static final VarHandle NEXT;
+
+  static {
+    try {
+      final MethodHandles.Lookup lookup = MethodHandles.lookup();
+      STATE = lookup.findVarHandle(AbstractFuture.class, "state", Object.class);
+      DEPENDENTS = lookup.findVarHandle(AbstractFuture.class, "dependents", int.class);
+      NEXT = lookup.findVarHandle(Callback.class, "next", Callback.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Either null or a {@link Callback} (the head of the stack of pending callbacks) while incomplete,
+   * or a {@link Result} once completed.
+   */
+  private volatile Object state;
+
+  /**
+   * The future this stage was derived from, kept until this stage completes so that cancellation can propagate upstream.
+   */
+  private volatile AbstractFuture<?> source;
+
+  /**
+   * Number of stages derived from this future that have not been cancelled.
+   * Other callbacks, such as listeners and combinators, are not counted but are found on the stack when the count
+   * drops to zero.
+   */
+  private volatile int dependents;
+
+  AbstractFuture() {
+    if (FutureTracer.current != null) {
+      FutureTracer.onCreate(this);
+    }
+  }
+
+  AbstractFuture(Result<T> result) {
+    state = result;
+  }
+
+  public boolean isDone() {
+    return state instanceof Result;
+  }
+
+  public boolean isCancelled() {
+    final Result<T> result = resultNow();
+    return result != null && result.throwable instanceof CancellationException;
+  }
+
+  /**
+   * @return the result, or null if the future is not complete yet
+   */
+  final Result<T> resultNow() {
+    final Object current = state;
+    return current instanceof Result ? cast(current) : null;
+  }
+
+  /**
+   * Relays the result of the future this one was pushed onto.
+   */
+  @Override
+  void accept(Result<Object> result) {
+    completeWith(result.cast());
+  }
+
+  /**
+   * A stage that is done, typically because it was cancelled, no longer needs the result of its source.
+   */
+  @Override
+  boolean isLive() {
+    return !isDone();
+  }
+
+  /**
+   * Cancels this future. If every stage derived from the future this one was derived from has now been cancelled,
+   * and nothing else registered on that future still needs its result, that future is cancelled too,
+   * and so on upstream. This walks the chain iteratively, so long chains do not recurse.
+   * All the stages cancelled by the walk share the same result.
+   *
+   * @return true if this call cancelled this future
+   */
+  final boolean cancelUpstream(ExceptionMode mode) {
+    AbstractFuture<?> upstream = source;
+    if (isDone()) {
+      return false;
+    }
+    final Result<?> cancelled = Result.exception(mode.newCancellation());
+    if (!cancelStage(cancelled)) {
+      return false;
+    }
+    while (upstream != null && (int) DEPENDENTS.getAndAdd(upstream, -1) == 1 && !upstream.hasLiveCallbacks()) {
+      final AbstractFuture<?> next = upstream.source;
+      if (!upstream.cancelStage(cancelled)) {
+        break;
+      }
+      upstream = next;
+    }
+    return true;
+  }
+
+  private boolean cancelStage(Result<?> cancelled) {
+    return completeWith(cancelled.cast());
+  }
+
+  /**
+   * Looks for a callback that still needs the result, such as a listener, a combinator or a stage that has not
+   * been cancelled. This only runs when the last counted stage is cancelled, so registering callbacks stays cheap.
+   * If the future completes during the scan the answer does not matter, since it can no longer be cancelled.
+   */
+  private boolean hasLiveCallbacks() {
+    for (Object node = state; node instanceof Callback; node = ((Callback<?>) node).next) {
+      if (((Callback<?>) node).isLive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Links this new stage to the future it is derived from, replacing any previous link.
+   * Completed futures are not linked, since there is nothing left to cancel.
+   */
+  final void dependOn(AbstractFuture<?> upstream) {
+    if (FutureTracer.current != null) {
+      FutureTracer.onEdge(this, upstream);
+    }
+    if (!upstream.isDone()) {
+      DEPENDENTS.getAndAdd(upstream, 1);
+      source = upstream;
+    }
+  }
+
+  /**
+   * Pushes a future onto the stack of pending callbacks, so it is completed with the same result.
+   * The future must not be on any other stack.
+   */
+  final void addDependent(AbstractFuture<?> stage) {
+    addCallback(cast(stage));
+  }
+
+  /**
+   * Pushes the callback onto the stack of pending callbacks, or invokes it directly if the future is already complete.
+   * A callback that throws when invoked directly is reported to the uncaught exception handler, like in
+   * {@link #dispatch}, so registering a callback never throws. Waiters that gave up at the top of the stack
+   * are unlinked by the push.
+   */
+  final void addCallback(Callback<T> callback) {
+    while (true) {
+      final Object current = state;
+      if (current instanceof Result) {
+        // Drop the link from a failed push, so the callback does not keep an old stack reachable
+        callback.next = null;
+        try {
+          callback.accept(cast(current));
+        } catch (Throwable e) {
+          reportCallbackFailure(e);
+        }
+        return;
+      }
+      callback.next = skipDeadWaiters(cast(current));
+      if (STATE.compareAndSet(this, current, callback)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * A push that skips nodes fails if the stack has been taken meanwhile, and relinking below the top only ever
+   * removes dead waiters, so the skipped nodes are never live callbacks.
+   */
+  private static <T> Callback<T> skipDeadWaiters(Callback<T> head) {
+    while (head instanceof Waiter && ((Waiter<T>) head).thread == null) {
+      head = head.next;
+    }
+    return head;
+  }
+
+  /**
+   * Unlinks the waiters that gave up from anywhere below the top of the stack, so a future that is polled with
+   * timed joins does not grow while it stays incomplete. Each unlink is a compare-and-set of the link to a dead
+   * waiter, so a live callback is never dropped. Two threads unlinking neighbours may leave one of them behind
+   * until the next cleanup. The completing thread reverses the links in place while this may still be walking
+   * them, so the links are read with acquire here and the reversal publishes them with release; a walker that
+   * sees a reversed link therefore also sees every link reversed before it, and cannot create a cycle.
+   */
+  private void unlinkDeadWaiters() {
+    final Object head = state;
+    if (!(head instanceof Callback)) {
+      return;
+    }
+    Callback<?> pred = (Callback<?>) head;
+    Callback<?> node = (Callback<?>) NEXT.getAcquire(pred);
+    while (node != null && !(state instanceof Result)) {
+      final Callback<?> next = (Callback<?>) NEXT.getAcquire(node);
+      if (node instanceof Waiter && ((Waiter<?>) node).thread == null) {
+        // On failure the link changed under us, so re-read it instead of stepping past the dead waiter
+        node = NEXT.compareAndSet(pred, node, next) ? next : (Callback<?>) NEXT.getAcquire(pred);
+      } else {
+        pred = node;
+        node = next;
+      }
+    }
+  }
+
+  /**
+   * @return the number of callbacks on the stack, including waiters that gave up
+   */
+  final int pendingCallbacks() {
+    int count = 0;
+    for (Object node = state; node instanceof Callback; node = ((Callback<?>) node).next) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Swaps the pending callbacks for the result. Only the thread that wins the swap gets the stack,
+   * so every callback is invoked exactly once.
+   */
+  final boolean completeWith(Result<T> result) {
+    while (true) {
+      final Object current = state;
+      if (current instanceof Result) {
+        return false;
+      }
+      if (STATE.compareAndSet(this, current, result)) {
+        if (source != null) {
+          source = null;
+        }
+        if (FutureTracer.current != null) {
+          FutureTracer.onComplete(this, result.throwable != null);
+        }
+        if (PendingFutures.enabled) {
+          PendingFutures.onComplete(this);
+        }
+        if (current != null) {
+          dispatch(cast(current), result);
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Completes the future, or replaces the result if it is already complete.
+   * Callbacks that already ran are not run again.
+   */
+  final void overwrite(Result<T> result) {
+    completeWith(result);
+    if (state != result) {
+      state = result;
+    }
+  }
+
+  /**
+   * Runs the callbacks of a newly completed future. Completing a dependent from within a callback
+   * does not recurse: the dependent's callbacks are queued on the thread's trampoline and run by the
+   * outermost dispatch, so the stack depth stays bounded regardless of how long the chain is.
+   *
+   * A callback that throws is reported to the uncaught exception handler of the thread, like a task on the
+   * {@link HashedWheelTimer}, so it neither stops the other callbacks nor fails whoever completed the future.
+   */
+  private static <T> void dispatch(Callback<T> head, Result<T> result) {
+    final Trampoline trampoline = TRAMPOLINE.get();
+    if (trampoline.running) {
+      trampoline.pending.add(head);
+      trampoline.pending.add(result);
+      return;
+    }
+    trampoline.running = true;
+    try {
+      drainCallbacks(head, result);
+      drainPending(trampoline);
+    } finally {
+      trampoline.running = false;
+    }
+  }
+
+  private static void drainPending(Trampoline trampoline) {
+    Object next;
+    while ((next = trampoline.pending.poll()) != null) {
+      drainCallbacks(cast(next), cast(trampoline.pending.poll()));
+    }
+  }
+
+  private static <T> void drainCallbacks(Callback<T> head, Result<T> result) {
+    // The stack is in reverse registration order, so flip it to invoke callbacks in the order they were added
+    Callback<T> reversed = null;
+    while (head != null) {
+      final Callback<T> next = head.next;
+      // Release, so a concurrent unlinkDeadWaiters never sees this link reversed before the ones above it
+      NEXT.setRelease(head, reversed);
+      reversed = head;
+      head = next;
+    }
+    while (reversed != null) {
+      final Callback<T> next = reversed.next;
+      reversed.next = null;
+      try {
+        reversed.accept(result);
+      } catch (Throwable e) {
+        reportCallbackFailure(e);
+      }
+      reversed = next;
+    }
+  }
+
+  private static void reportCallbackFailure(Throwable e) {
+    final Thread thread = Thread.currentThread();
+    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+  }
+
+  /**
+   * Spins for a short while and then parks until the future is complete.
+   *
+   * @return the result, or null if the wait timed out
+   */
+  final Result<T> await(boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+    BlockingDetector.beforeBlockingWait();
+    final long deadline = timed ? System.nanoTime() + nanos : 0L;
+    for (int spins = SPINS; spins > 0; spins--) {
+      final Object current = state;
+      if (current instanceof Result) {
+        return cast(current);
+      }
+      Thread.onSpinWait();
+    }
+
+    // If we give up waiting, the waiter unlinks itself from the top of the stack if it is still there,
+    // and otherwise sweeps the dead waiters from the rest of the stack
+    final Waiter<T> waiter = new Waiter<>(Thread.currentThread());
+    addCallback(waiter);
+    boolean interrupted = false;
+    try {
+      while (true) {
+        final Object current = state;
+        if (current instanceof Result) {
+          return cast(current);
+        }
+        if (Thread.interrupted()) {
+          if (interruptible) {
+            throw new InterruptedException();
+          }
+          interrupted = true;
+        }
+        if (timed) {
+          final long remaining = deadline - System.nanoTime();
+          if (remaining <= 0L) {
+            return null;
+          }
+          LockSupport.parkNanos(this, remaining);
+        } else {
+          LockSupport.park(this);
+        }
+      }
+    } finally {
+      if (waiter.thread != null) {
+        waiter.thread = null;
+        if (!STATE.compareAndSet(this, waiter, waiter.next)) {
+          unlinkDeadWaiters();
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * The state and the trampoline hold callbacks and results of any type, and the values of combined futures
+   * are collected untyped, so their types are restored with this one unchecked cast.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T cast(Object value) {
+    return (T) value;
+  }
+
+  /**
+   * @return true if the current thread is running the callbacks of a completed future
+   */
+  static boolean isRunningCallbacks() {
+    return TRAMPOLINE.get().running;
+  }
+
+  /**
+   * Per-thread work list of completed futures whose callbacks have not been run yet,
+   * stored as alternating callback stack heads and results.
+   */
+  private static class Trampoline {
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private boolean running;
+  }
+
+  private static class Waiter<T> extends Callback<T> {
+    private volatile Thread thread;
+
+    private Waiter(Thread thread) {
+      this.thread = thread;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      final Thread waiting = thread;
+      if (waiting != null) {
+        thread = null;
+        LockSupport.unpark(waiting);
+      }
+    }
+
+    /**
+     * Callers of join do not keep a future from being cancelled.
+     */
+    @Override
+    boolean isLive() {
+      return false;
+    }
+  }
+
+  /**
+   * Passes the value or the exception to a consumer.
+   */
+  static class Listener<T> extends Callback<T> {
+    private BiConsumer<? super T, Throwable> consumer;
+
+    Listener(BiConsumer<? super T, Throwable> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      final BiConsumer<? super T, Throwable> target = consumer;
+      consumer = null;
+      target.accept(result.value, result.throwable);
+    }
+  }
+
+  static class OnCancel<T> extends Callback<T> {
+    private Runnable action;
+
+    OnCancel(Runnable action) {
+      this.action = action;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      final Runnable target = action;
+      action = null;
+      if (result.throwable instanceof CancellationException) {
+        target.run();
+      }
+    }
+
+    @Override
+    boolean isLive() {
+      return false;
+    }
+  }
+
+  /**
+   * Runs an action once the future completes. Unlike a {@link Listener} it does not count as needing the result,
+   * so it can clean up after a future without keeping it from being cancelled.
+   */
+  static class OnDone<T> extends Callback<T> {
+    private Runnable action;
+
+    OnDone(Runnable action) {
+      this.action = action;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      final Runnable target = action;
+      action = null;
+      target.run();
+    }
+
+    @Override
+    boolean isLive() {
+      return false;
+    }
+  }
+
+  static class CancelTimeout<T> extends Callback<T> {
+    private final HashedWheelTimer.Timeout timeout;
+
+    CancelTimeout(HashedWheelTimer.Timeout timeout) {
+      this.timeout = timeout;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      timeout.cancel();
+    }
+
+    @Override
+    boolean isLive() {
+      return false;
+    }
+  }
+
+  /**
+   * Hands the result of one input to a {@link Combiner}.
+   */
+  static class Collect<T> extends Callback<T> {
+    private final Combiner<?> combiner;
+    private final int index;
+    private final Function<Throwable, ?> defaultValueMapper;
+
+    Collect(Combiner<?> combiner, int index, Function<Throwable, ?> defaultValueMapper) {
+      this.combiner = combiner;
+      this.index = index;
+      this.defaultValueMapper = defaultValueMapper;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      if (result.throwable == null) {
+        combiner.onValue(index, result.value);
+      } else if (defaultValueMapper == null) {
+        combiner.onFailure(result.throwable);
+      } else {
+        final Object value;
+        try {
+          value = defaultValueMapper.apply(result.throwable);
+        } catch (Throwable e) {
+          combiner.onFailure(e);
+          return;
+        }
+        combiner.onValue(index, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package se.krka.futures;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects blocking waits on incomplete futures in places where blocking is a bug, see blocking_get.md:
+ * on threads that have been registered as non-blocking, such as event loops, and inside future callbacks,
+ * where blocking stalls the thread that completed the future.
+ *
+ * The detector covers {@link SimpleFuture#join()} and its variants, the primitive futures,
+ * {@link PFuture#toCompletableFuture()} and any {@link CompletableFuture} wrapped with {@link #wrap(CompletionStage)}.
+ * Waits on futures that are already complete are never checked, so they cost nothing.
+ * Waiting on an incomplete future costs a volatile read while the detector is off.
+ *
+ * Flagged waits are counted per call site, the first frame outside the futures themselves, and a stack trace
+ * is kept for the first wait and then every {@link #setSampleInterval(int) n-th} wait from each call site.
+ */
+public final class BlockingDetector {
+
+  public enum Mode {
+    OFF,
+    /**
+     * Count the blocking waits, and then wait as usual.
+     */
+    RECORD,
+    /**
+     * Count the blocking waits, and throw an {@link IllegalStateException} instead of waiting.
+     */
+    FAIL_FAST
+  }
+
+  private static final Set<String> FUTURE_CLASSES = Set.of(
+          BlockingDetector.class.getName(),
+          DetectingFuture.class.getName(),
+          AbstractFuture.class.getName(),
+          SimpleFuture.class.getName(),
+          PFuture.class.getName(),
+          PrimitiveFuture.class.getName(),
+          IntFuture.class.getName(),
+          LongFuture.class.getName(),
+          DoubleFuture.class.getName(),
+          CompletableFuture.class.getName());
+
+  private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+  private static final ThreadLocal<Boolean> NON_BLOCKING = new ThreadLocal<>();
+  private static final ThreadLocal<Boolean> IN_STAGE = new ThreadLocal<>();
+  private static final ConcurrentMap<String, CallSite> CALL_SITES = new ConcurrentHashMap<>();
+
+  private static volatile Mode mode = Mode.OFF;
+  private static volatile int sampleInterval = 100;
+
+  private BlockingDetector() {
+  }
+
+  public static void setMode(Mode mode) {
+    BlockingDetector.mode = Objects.requireNonNull(mode);
+  }
+
+  public static Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Keeps a stack trace for the first flagged wait from each call site, and then for every n-th one.
+   */
+  public static void setSampleInterval(int interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval must be positive: " + interval);
+    }
+    sampleInterval = interval;
+  }
+
+  /**
+   * Registers the current thread as one that must never block on a future, for example an event loop thread.
+   */
+  public static void registerNonBlockingThread() {
+    NON_BLOCKING.set(Boolean.TRUE);
+  }
+
+  public static void unregisterNonBlockingThread() {
+    NON_BLOCKING.remove();
+  }
+
+  /**
+   * @return a thread factory whose threads register themselves as non-blocking
+   */
+  public static ThreadFactory nonBlockingThreadFactory(ThreadFactory threadFactory) {
+    return runnable -> threadFactory.newThread(() -> {
+      registerNonBlockingThread();
+      runnable.run();
+    });
+  }
+
+  /**
+   * Returns a future with the same result, whose blocking methods are checked by the detector,
+   * as are those of every stage derived from it. Completed futures are returned as-is, since they never block.
+   */
+  public static <T> CompletableFuture<T> wrap(CompletionStage<T> stage) {
+    final CompletableFuture<T> future = stage.toCompletableFuture();
+    if (future.isDone()) {
+      return future;
+    }
+    final CompletableFuture<T> detecting = new DetectingFuture<>();
+    future.whenComplete((value, throwable) -> {
+      if (throwable != null) {
+        detecting.completeExceptionally(throwable);
+      } else {
+        detecting.complete(value);
+      }
+    });
+    return detecting;
+  }
+
+  /**
+   * @return the number of flagged waits per call site
+   */
+  public static Map<String, Long> callSites() {
+    final Map<String, Long> result = new TreeMap<>();
+    CALL_SITES.forEach((site, callSite) -> result.put(site, callSite.count.sum()));
+    return result;
+  }
+
+  /**
+   * @return the latest sampled stack trace from the call site, or null if it has never been flagged
+   */
+  public static StackTraceElement[] sample(String callSite) {
+    final CallSite site = CALL_SITES.get(callSite);
+    return site == null ? null : site.sample;
+  }
+
+  public static void reset() {
+    CALL_SITES.clear();
+  }
+
+  /**
+   * @return a new incomplete future that is checked by the detector, or a plain one if the detector is off
+   */
+  static <T> CompletableFuture<T> newCompletableFuture() {
+    return mode == Mode.OFF ? new CompletableFuture<>() : new DetectingFuture<>();
+  }
+
+  /**
+   * Marks the current thread as running a stage that was handed off to an executor, so waiting inside it is flagged
+   * like waiting inside a synchronous callback. Nothing is marked while the detector is off.
+   *
+   * @return true if the thread was marked by this call, to be passed on to {@link #exitStage(boolean)}
+   */
+  static boolean enterStage() {
+    if (mode == Mode.OFF || IN_STAGE.get() != null) {
+      return false;
+    }
+    IN_STAGE.set(Boolean.TRUE);
+    return true;
+  }
+
+  static void exitStage(boolean marked) {
+    if (marked) {
+      IN_STAGE.remove();
+    }
+  }
+
+  /**
+   * Called before a thread starts waiting for an incomplete future.
+   *
+   * @throws IllegalStateException if the wait is flagged and the detector fails fast
+   */
+  static void beforeBlockingWait() {
+    final Mode current = mode;
+    if (current == Mode.OFF) {
+      return;
+    }
+    final String reason;
+    if (NON_BLOCKING.get() != null) {
+      reason = "on non-blocking thread " + Thread.currentThread().getName();
+    } else if (AbstractFuture.isRunningCallbacks() || IN_STAGE.get() != null) {
+      reason = "inside a future callback";
+    } else {
+      return;
+    }
+
+    final String site = STACK_WALKER.walk(frames -> frames
+            .filter(frame -> !FUTURE_CLASSES.contains(frame.getClassName()))
+            .findFirst()
+            .map(StackWalker.StackFrame::toStackTraceElement)
+            .map(StackTraceElement::toString)
+            .orElse("unknown"));
+    final CallSite callSite = CALL_SITES.computeIfAbsent(site, key -> new CallSite());
+    callSite.count.increment();
+    if ((callSite.count.sum() - 1) % sampleInterval == 0) {
+      callSite.sample = new Throwable().getStackTrace();
+    }
+    if (current == Mode.FAIL_FAST) {
+      throw new IllegalStateException("Blocking wait on an incomplete future " + reason + " at " + site);
+    }
+  }
+
+  private static final class CallSite {
+    private final LongAdder count = new LongAdder();
+    private volatile StackTraceElement[] sample;
+  }
+
+  /**
+   * A {@link CompletableFuture} that checks its blocking methods, and creates stages of the same kind.
+   */
+  private static final class DetectingFuture<T> extends CompletableFuture<T> {
+    @Override
+    public <U> CompletableFuture<U> newIncompleteFuture() {
+      return new DetectingFuture<>();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      if (!isDone()) {
+        beforeBlockingWait();
+      }
+      return super.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!isDone()) {
+        beforeBlockingWait();
+      }
+      return super.get(timeout, unit);
+    }
+
+    @Override
+    public T join() {
+      if (!isDone()) {
+        beforeBlockingWait();
+      }
+      return super.join();
+    }
+  }
+}
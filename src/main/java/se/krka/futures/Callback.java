@@ -0,0 +1,19 @@
+package se.krka.futures;
+
+/**
+ * A node in the stack of pending callbacks of a future. The node is the callback itself,
+ * so registering a dependent does not allocate anything else.
+ */
+abstract class Callback<T> {
+  Callback<T> next;
+
+  abstract void accept(Result<T> result);
+
+  /**
+   * @return false if the callback no longer needs the result, so it does not keep the future
+   *     from being cancelled when all the stages derived from it are
+   */
+  boolean isLive() {
+    return true;
+  }
+}
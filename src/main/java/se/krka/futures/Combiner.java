@@ -0,0 +1,71 @@
+package se.krka.futures;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Collects the values of a number of futures into a single array, using one countdown for all of them.
+ * This avoids the tree of intermediate futures that nested {@code allOf} or {@code thenCombine} calls build.
+ *
+ * The first failure completes the result immediately, and the values of the remaining futures are ignored.
+ */
+abstract class Combiner<R> {
+  private final Object[] values;
+  private final Function<Object[], ? extends R> finisher;
+
+  /**
+   * The number of values left to collect, or a negative number once the combiner has failed.
+   */
+  private final AtomicInteger remaining;
+
+  Combiner(int size, Function<Object[], ? extends R> finisher) {
+    this.values = new Object[size];
+    this.finisher = finisher;
+    this.remaining = new AtomicInteger(size);
+  }
+
+  /**
+   * Completes the result right away if there are no futures to wait for.
+   */
+  final void completeIfEmpty() {
+    if (values.length == 0) {
+      finish();
+    }
+  }
+
+  final void onValue(int index, Object value) {
+    values[index] = value;
+    if (remaining.decrementAndGet() == 0) {
+      finish();
+    }
+  }
+
+  final void onFailure(Throwable t) {
+    if (remaining.getAndSet(-1) > 0) {
+      fail(t);
+    }
+  }
+
+  private void finish() {
+    final R result;
+    try {
+      result = finisher.apply(values);
+    } catch (Throwable e) {
+      fail(e);
+      return;
+    }
+    succeed(result);
+  }
+
+  abstract void succeed(R value);
+
+  abstract void fail(Throwable t);
+
+  @SuppressWarnings("unchecked")
+  static <T> List<T> asList(Object[] values) {
+    return Collections.unmodifiableList((List<T>) Arrays.asList(values));
+  }
+}
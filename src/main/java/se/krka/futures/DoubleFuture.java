@@ -0,0 +1,245 @@
+package se.krka.futures;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.DoubleFunction;
+import java.util.function.DoubleToIntFunction;
+import java.util.function.DoubleToLongFunction;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A future of a primitive double, modelled on {@link SimpleFuture}. The value is never boxed
+ * unless the future is bridged to {@link PFuture} or {@link CompletableFuture}.
+ */
+public class DoubleFuture extends PrimitiveFuture {
+  private double value;
+
+  public DoubleFuture() {
+  }
+
+  public static DoubleFuture completed(double value) {
+    final DoubleFuture future = new DoubleFuture();
+    future.complete(value);
+    return future;
+  }
+
+  public static DoubleFuture exceptionallyCompleted(Throwable t) {
+    final DoubleFuture future = new DoubleFuture();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  public static DoubleFuture fromCompletionStage(CompletionStage<Double> stage) {
+    final DoubleFuture future = new DoubleFuture();
+    stage.whenComplete((value, throwable) -> {
+      if (throwable != null) {
+        future.completeExceptionally(unwrap(throwable));
+      } else if (value == null) {
+        future.completeExceptionally(new NullPointerException());
+      } else {
+        future.complete(value);
+      }
+    });
+    return future;
+  }
+
+  public void complete(double value) {
+    if (claim()) {
+      this.value = value;
+      publish();
+    }
+  }
+
+  public double join() throws InterruptedException, ExecutionException {
+    awaitValue();
+    return value;
+  }
+
+  public double join(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    awaitValue(unit.toNanos(timeout));
+    return value;
+  }
+
+  public DoubleFuture map(DoubleUnaryOperator transform) {
+    final DoubleFuture future = new DoubleFuture();
+    addListener(new ToDouble(future, transform));
+    return future;
+  }
+
+  public IntFuture mapToInt(DoubleToIntFunction transform) {
+    final IntFuture future = new IntFuture();
+    addListener(new ToInt(future, transform));
+    return future;
+  }
+
+  public LongFuture mapToLong(DoubleToLongFunction transform) {
+    final LongFuture future = new LongFuture();
+    addListener(new ToLong(future, transform));
+    return future;
+  }
+
+  public <U> SimpleFuture<U> mapToObj(DoubleFunction<U> transform) {
+    final SimpleFuture<U> future = new SimpleFuture<>();
+    addListener(new ToObj<>(future, transform));
+    return future;
+  }
+
+  public CompletableFuture<Double> toCompletableFuture() {
+    final CompletableFuture<Double> future = new CompletableFuture<>();
+    addListener(new ToCompletableFuture(future));
+    return future;
+  }
+
+  public PFuture<Double> toPFuture() {
+    final PFuture<Double> future = new PFuture<>();
+    addListener(new ToPFuture(future));
+    return future;
+  }
+
+  private static class ToInt extends Listener {
+    private final IntFuture future;
+    private final DoubleToIntFunction transform;
+
+    private ToInt(IntFuture future, DoubleToIntFunction transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final int result;
+      try {
+        result = transform.applyAsInt(((DoubleFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToLong extends Listener {
+    private final LongFuture future;
+    private final DoubleToLongFunction transform;
+
+    private ToLong(LongFuture future, DoubleToLongFunction transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final long result;
+      try {
+        result = transform.applyAsLong(((DoubleFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToDouble extends Listener {
+    private final DoubleFuture future;
+    private final DoubleUnaryOperator transform;
+
+    private ToDouble(DoubleFuture future, DoubleUnaryOperator transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final double result;
+      try {
+        result = transform.applyAsDouble(((DoubleFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToObj<U> extends Listener {
+    private final SimpleFuture<U> future;
+    private final DoubleFunction<U> transform;
+
+    private ToObj(SimpleFuture<U> future, DoubleFunction<U> transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final U result;
+      try {
+        result = transform.apply(((DoubleFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToCompletableFuture extends Listener {
+    private final CompletableFuture<Double> future;
+
+    private ToCompletableFuture(CompletableFuture<Double> future) {
+      this.future = future;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(ExceptionMode.unshared(exception));
+      } else {
+        future.complete(((DoubleFuture) source).value);
+      }
+    }
+  }
+
+  private static class ToPFuture extends Listener {
+    private final PFuture<Double> future;
+
+    private ToPFuture(PFuture<Double> future) {
+      this.future = future;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeWith(Result.exception(exception));
+      } else {
+        future.completeWith(Result.value(((DoubleFuture) source).value));
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package se.krka.futures;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * How the futures create the exceptions for cancellations and timeouts.
+ *
+ * Filling in the stack trace is by far the most expensive part of failing a future, and the stack trace of a
+ * cancellation or a timeout rarely says anything useful, since it only shows the thread that cancelled or the timer.
+ * Load shedding code that cancels many futures can avoid that cost with {@link #STACKLESS} or {@link #SHARED},
+ * either for all futures with {@link #setDefault(ExceptionMode)} or for a single call.
+ *
+ * The exceptions are always of the expected type, so checks like {@code instanceof CancellationException} still work.
+ */
+public enum ExceptionMode {
+  /**
+   * A new exception with a full stack trace every time, like the JDK.
+   */
+  FULL,
+
+  /**
+   * A new exception every time, without a stack trace.
+   */
+  STACKLESS,
+
+  /**
+   * The same stackless exception every time, so failing a future allocates nothing. Failures can not be told apart
+   * by identity. The shared exception is only passed to callbacks and returned by accessors: methods that throw it,
+   * such as {@code join}, or pass it to a {@link java.util.concurrent.CompletableFuture}, throw a new stackless copy
+   * instead, so that suppressed exceptions are never added to the shared instance.
+   */
+  SHARED;
+
+  private static final CancellationException SHARED_CANCELLATION = new StacklessCancellationException();
+  private static final TimeoutException SHARED_TIMEOUT = new StacklessTimeoutException();
+
+  private static volatile ExceptionMode defaultMode = FULL;
+
+  /**
+   * @return the mode used by methods that do not take one
+   */
+  public static ExceptionMode getDefault() {
+    return defaultMode;
+  }
+
+  public static void setDefault(ExceptionMode mode) {
+    defaultMode = Objects.requireNonNull(mode);
+  }
+
+  public CancellationException newCancellation() {
+    switch (this) {
+      case STACKLESS:
+        return new StacklessCancellationException();
+      case SHARED:
+        return SHARED_CANCELLATION;
+      default:
+        return new CancellationException();
+    }
+  }
+
+  public TimeoutException newTimeout() {
+    switch (this) {
+      case STACKLESS:
+        return new StacklessTimeoutException();
+      case SHARED:
+        return SHARED_TIMEOUT;
+      default:
+        return new TimeoutException();
+    }
+  }
+
+  /**
+   * Replaces a shared exception with a new stackless one of the same type, for methods that throw it to the caller.
+   */
+  static Throwable unshared(Throwable t) {
+    if (t == SHARED_CANCELLATION) {
+      return new StacklessCancellationException();
+    } else if (t == SHARED_TIMEOUT) {
+      return new StacklessTimeoutException();
+    }
+    return t;
+  }
+
+  private static final class StacklessCancellationException extends CancellationException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  private static final class StacklessTimeoutException extends TimeoutException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
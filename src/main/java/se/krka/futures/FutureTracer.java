@@ -0,0 +1,439 @@
+package se.krka.futures;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records the graph of futures, as described in "Building graphs with futures" in the README:
+ * when each future was created and completed, on which threads, and which futures it was waiting for.
+ *
+ * Tracing is off unless a tracer has been {@link #start(int) started}, and then costs a volatile read per event.
+ * While a tracer is active, each thread writes its events to its own ring buffer without any locking, so the oldest
+ * events are overwritten if a thread records more than the buffer holds. The trace should be read after the tracer
+ * has been {@link #stop() stopped}, either as Chrome trace event JSON, which can be opened in Perfetto or
+ * chrome://tracing, or as the critical path that led to the completion of a given future.
+ *
+ * Futures are not given an id field, since that would make every future larger whether it is traced or not.
+ * Events identify futures by their identity hash code instead, and the futures are numbered when the trace is read,
+ * by replaying the events in time order. Two futures can only be mixed up if they are pending at the same time
+ * and have the same identity hash code.
+ */
+public final class FutureTracer {
+  private static final byte CREATE = 1;
+  private static final byte EDGE = 2;
+  private static final byte COMPLETE = 3;
+  private static final byte FAIL = 4;
+
+  /**
+   * The tracer that futures report to, or null if tracing is off.
+   */
+  static volatile FutureTracer current;
+
+  private final int capacity;
+  private final long startNanos = System.nanoTime();
+  private final ThreadLocal<Ring> rings = ThreadLocal.withInitial(this::newRing);
+  private final ConcurrentLinkedQueue<Ring> allRings = new ConcurrentLinkedQueue<>();
+
+  private FutureTracer(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Starts tracing all futures created from now on, replacing any active tracer.
+   *
+   * @param eventsPerThread the size of each thread's ring buffer, rounded up to a power of two.
+   *                        Each future records two or three events.
+   */
+  public static FutureTracer start(int eventsPerThread) {
+    if (eventsPerThread < 1) {
+      throw new IllegalArgumentException("eventsPerThread must be positive: " + eventsPerThread);
+    }
+    final FutureTracer tracer = new FutureTracer(Integer.highestOneBit(eventsPerThread - 1 | 1) << 1);
+    current = tracer;
+    return tracer;
+  }
+
+  /**
+   * Stops recording. The events recorded so far are kept.
+   */
+  public void stop() {
+    if (current == this) {
+      current = null;
+    }
+  }
+
+  /**
+   * @return the number of events that were overwritten because a ring buffer was full
+   */
+  public long droppedEvents() {
+    long dropped = 0;
+    for (Ring ring : allRings) {
+      dropped += Math.max(0, ring.written - ring.kinds.length);
+    }
+    return dropped;
+  }
+
+  static void onCreate(AbstractFuture<?> future) {
+    final FutureTracer tracer = current;
+    if (tracer != null) {
+      tracer.record(CREATE, System.identityHashCode(future), 0, label(future));
+    }
+  }
+
+  /**
+   * Records that the future can not complete before the parent has completed.
+   */
+  static void onEdge(AbstractFuture<?> future, AbstractFuture<?> parent) {
+    final FutureTracer tracer = current;
+    if (tracer != null) {
+      tracer.record(EDGE, System.identityHashCode(future), System.identityHashCode(parent), null);
+    }
+  }
+
+  static void onComplete(AbstractFuture<?> future, boolean failed) {
+    final FutureTracer tracer = current;
+    if (tracer != null) {
+      tracer.record(failed ? FAIL : COMPLETE, System.identityHashCode(future), 0, null);
+    }
+  }
+
+  private void record(byte kind, int id, int other, String label) {
+    final Ring ring = rings.get();
+    final long position = ring.written;
+    final int index = (int) position & (ring.kinds.length - 1);
+    ring.kinds[index] = kind;
+    ring.ids[index] = id;
+    ring.others[index] = other;
+    ring.labels[index] = label;
+    ring.times[index] = System.nanoTime();
+    // Publishes the event to readers
+    ring.written = position + 1;
+  }
+
+  private Ring newRing() {
+    final Ring ring = new Ring(Thread.currentThread(), capacity);
+    allRings.add(ring);
+    return ring;
+  }
+
+  /**
+   * Writes the trace as Chrome trace event JSON. Each future is an async slice from its creation to its completion,
+   * with the futures it waited for as arguments.
+   */
+  public void writeChromeTrace(Appendable out) {
+    try {
+      out.append("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+      boolean first = true;
+      for (Ring ring : allRings) {
+        first = separator(out, first);
+        out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(Long.toString(ring.threadId))
+                .append(",\"args\":{\"name\":");
+        quote(out, ring.threadName);
+        out.append("}}");
+      }
+      for (Node node : replay().nodes) {
+        if (node.created < 0) {
+          continue;
+        }
+        first = separator(out, first);
+        slice(out, node, "b", node.created, node.createdOn);
+        out.append('}');
+        if (node.completed >= 0) {
+          first = separator(out, first);
+          slice(out, node, "e", node.completed, node.completedOn);
+          out.append(",\"args\":{\"failed\":").append(Boolean.toString(node.failed)).append(",\"parents\":[");
+          for (int i = 0; i < node.parents.size(); i++) {
+            out.append(i == 0 ? "" : ",").append(Integer.toString(node.parents.get(i).id));
+          }
+          out.append("]}}");
+        }
+      }
+      out.append("]}");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public String toChromeTrace() {
+    final StringBuilder sb = new StringBuilder();
+    writeChromeTrace(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Returns the chain of futures that determined when the given future completed, starting with the earliest.
+   * Going backwards from the future, each step is the parent that completed last, since that is the one the future
+   * was waiting for. The chain ends at a future without traced parents, such as one created before the tracer started.
+   */
+  public List<Span> criticalPath(PFuture<?> future) {
+    return criticalPath((AbstractFuture<?>) future);
+  }
+
+  public List<Span> criticalPath(SimpleFuture<?> future) {
+    return criticalPath((AbstractFuture<?>) future);
+  }
+
+  private List<Span> criticalPath(AbstractFuture<?> future) {
+    final List<Span> path = new ArrayList<>();
+    final Set<Node> visited = new HashSet<>();
+    Node node = replay().latest.get(System.identityHashCode(future));
+    while (node != null && node.completed >= 0 && visited.add(node)) {
+      Node last = null;
+      for (Node parent : node.parents) {
+        if (parent.completed >= 0 && (last == null || parent.completed > last.completed)) {
+          last = parent;
+        }
+      }
+      path.add(new Span(node, last == null ? node.created : Math.max(node.created, last.completed)));
+      node = last;
+    }
+    Collections.reverse(path);
+    return path;
+  }
+
+  /**
+   * Formats the critical path of the future as one line per step, with the time each step added.
+   */
+  public String criticalPathReport(PFuture<?> future) {
+    return report(criticalPath(future));
+  }
+
+  public String criticalPathReport(SimpleFuture<?> future) {
+    return report(criticalPath(future));
+  }
+
+  private static String report(List<Span> path) {
+    if (path.isEmpty()) {
+      return "No critical path recorded\n";
+    }
+    final StringBuilder sb = new StringBuilder();
+    final Span first = path.get(0);
+    final Span last = path.get(path.size() - 1);
+    sb.append(String.format(Locale.ROOT, "Critical path: %d futures, %.3f ms%n",
+            path.size(), (last.completedNanos - Math.max(0, first.createdNanos)) / 1e6));
+    for (Span span : path) {
+      sb.append(String.format(Locale.ROOT, "  %10.3f ms  +%8.3f ms  %s%n",
+              span.completedNanos / 1e6, span.getSelfNanos() / 1e6, span));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Replays the events of all threads in time order, numbering the futures as they are created.
+   */
+  private Replay replay() {
+    final List<Event> events = new ArrayList<>();
+    for (Ring ring : allRings) {
+      final long written = ring.written;
+      final int mask = ring.kinds.length - 1;
+      for (long position = Math.max(0, written - ring.kinds.length); position < written; position++) {
+        events.add(new Event(ring, (int) position & mask));
+      }
+    }
+    events.sort(Comparator.comparingLong(event -> event.time));
+
+    final Replay replay = new Replay();
+    for (Event event : events) {
+      final Ring ring = event.ring;
+      final int index = event.index;
+      final int hash = ring.ids[index];
+      final long time = event.time - startNanos;
+      switch (ring.kinds[index]) {
+        case CREATE:
+          final Node created = replay.newNode(hash);
+          created.label = ring.labels[index];
+          created.created = time;
+          created.createdOn = ring;
+          break;
+        case EDGE:
+          final Node child = replay.latest.get(hash);
+          if (child != null) {
+            final Node parent = replay.latest.get(ring.others[index]);
+            // Parents created before the tracer started still show when they completed
+            child.parents.add(parent != null ? parent : replay.newNode(ring.others[index]));
+          }
+          break;
+        default:
+          final Node completed = replay.latest.get(hash);
+          if (completed != null && completed.completed < 0) {
+            completed.completed = time;
+            completed.completedOn = ring;
+            completed.failed = ring.kinds[index] == FAIL;
+          }
+      }
+    }
+    return replay;
+  }
+
+  private static String label(AbstractFuture<?> future) {
+    final String name = future.getClass().getSimpleName();
+    return name.isEmpty() ? future.getClass().getName() : name;
+  }
+
+  private static void slice(Appendable out, Node node, String phase, long nanos, Ring ring) throws IOException {
+    out.append("{\"name\":");
+    quote(out, node.label == null ? "untraced" : node.label);
+    out.append(",\"cat\":\"future\",\"ph\":\"").append(phase)
+            .append("\",\"id\":").append(Integer.toString(node.id))
+            .append(",\"pid\":1,\"tid\":").append(Long.toString(ring.threadId))
+            .append(",\"ts\":").append(String.format(Locale.ROOT, "%.3f", nanos / 1e3));
+  }
+
+  private static boolean separator(Appendable out, boolean first) throws IOException {
+    if (!first) {
+      out.append(',');
+    }
+    return false;
+  }
+
+  private static void quote(Appendable out, String value) throws IOException {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  /**
+   * A future on the critical path. Times are in nanoseconds since the tracer started.
+   */
+  public static final class Span {
+    private final int id;
+    private final String name;
+    private final long createdNanos;
+    private final long completedNanos;
+    private final long readyNanos;
+    private final String thread;
+
+    private Span(Node node, long readyNanos) {
+      this.id = node.id;
+      this.name = node.label == null ? "untraced" : node.label;
+      this.createdNanos = node.created;
+      this.completedNanos = node.completed;
+      this.readyNanos = readyNanos;
+      this.thread = node.completedOn.threadName;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return when the future was created, or -1 if it was created before the tracer started
+     */
+    public long getCreatedNanos() {
+      return createdNanos;
+    }
+
+    public long getCompletedNanos() {
+      return completedNanos;
+    }
+
+    /**
+     * @return the time from when the future's last parent completed, or it was created, until it completed
+     */
+    public long getSelfNanos() {
+      return completedNanos - Math.max(0, readyNanos);
+    }
+
+    /**
+     * @return the name of the thread that completed the future
+     */
+    public String getThread() {
+      return thread;
+    }
+
+    @Override
+    public String toString() {
+      return name + "#" + id + " on " + thread;
+    }
+  }
+
+  /**
+   * The events of one thread. Only the owning thread writes to it.
+   */
+  private static final class Ring {
+    private final String threadName;
+    private final long threadId;
+    private final byte[] kinds;
+    private final int[] ids;
+    private final int[] others;
+    private final long[] times;
+    private final String[] labels;
+    private volatile long written;
+
+    private Ring(Thread thread, int capacity) {
+      this.threadName = thread.getName();
+      this.threadId = thread.getId();
+      this.kinds = new byte[capacity];
+      this.ids = new int[capacity];
+      this.others = new int[capacity];
+      this.times = new long[capacity];
+      this.labels = new String[capacity];
+    }
+  }
+
+  private static final class Event {
+    private final Ring ring;
+    private final int index;
+    private final long time;
+
+    private Event(Ring ring, int index) {
+      this.ring = ring;
+      this.index = index;
+      this.time = ring.times[index];
+    }
+  }
+
+  private static final class Replay {
+    private final List<Node> nodes = new ArrayList<>();
+
+    /**
+     * The most recently created future for each identity hash code.
+     */
+    private final Map<Integer, Node> latest = new HashMap<>();
+
+    private Node newNode(int hash) {
+      final Node node = new Node(nodes.size() + 1);
+      nodes.add(node);
+      latest.put(hash, node);
+      return node;
+    }
+  }
+
+  private static final class Node {
+    private final int id;
+    private final List<Node> parents = new ArrayList<>(1);
+    private String label;
+    private long created = -1;
+    private long completed = -1;
+    private Ring createdOn;
+    private Ring completedOn;
+    private boolean failed;
+
+    private Node(int id) {
+      this.id = id;
+    }
+  }
+}
@@ -0,0 +1,272 @@
+package se.krka.futures;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A timer for large numbers of short timeouts, based on a hashed timing wheel.
+ *
+ * Scheduling and cancelling are O(1): new and cancelled timeouts are put on lock-free queues,
+ * and the timer thread moves them in and out of the wheel buckets once per tick.
+ * Cancelled timeouts drop their task immediately and are unlinked from the wheel on the next tick,
+ * so they do not stay around until they would have expired.
+ *
+ * Tasks run on the timer thread and must be cheap. Timeouts on futures only use the timer thread
+ * to hand the completion over to an executor.
+ */
+public final class HashedWheelTimer {
+  private static final int INIT = 0;
+  private static final int CANCELLED = 1;
+  private static final int EXPIRED = 2;
+
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+  private final AtomicLong pending = new AtomicLong();
+  private final Thread thread;
+  private final long startTime;
+  private volatile boolean stopped;
+  private long tick;
+
+  /**
+   * @param name the name of the timer thread
+   * @param tickDuration the resolution of the timer
+   * @param ticksPerWheel the number of buckets in the wheel, rounded up to a power of two
+   */
+  public HashedWheelTimer(String name, Duration tickDuration, int ticksPerWheel) {
+    Objects.requireNonNull(name);
+    if (tickDuration.isNegative() || tickDuration.isZero()) {
+      throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+    }
+    if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+      throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+    }
+    this.tickNanos = tickDuration.toNanos();
+    final int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+    this.wheel = new Bucket[Math.max(size, 1)];
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = wheel.length - 1;
+    this.startTime = System.nanoTime();
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * The shared timer used by the timeout methods that do not take a timer.
+   */
+  public static HashedWheelTimer defaultTimer() {
+    return DefaultTimer.INSTANCE;
+  }
+
+  public Timeout newTimeout(Runnable task, Duration delay) {
+    Objects.requireNonNull(task);
+    if (stopped) {
+      throw new IllegalStateException("Timer has been stopped");
+    }
+    final long deadline = System.nanoTime() - startTime + Math.max(delay.toNanos(), 0L);
+    final Timeout timeout = new Timeout(this, task, deadline);
+    pending.incrementAndGet();
+    newTimeouts.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * @return the number of timeouts that have been scheduled but have neither expired nor been cancelled
+   */
+  public long pendingTimeouts() {
+    return pending.get();
+  }
+
+  /**
+   * Stops the timer thread. Timeouts that have not expired yet will never run.
+   */
+  public void stop() {
+    stopped = true;
+    thread.interrupt();
+  }
+
+  private void run() {
+    while (!stopped) {
+      final long now = waitForNextTick();
+      if (now < 0) {
+        return;
+      }
+      removeCancelled();
+      transferNewTimeouts();
+      wheel[(int) (tick & mask)].expire(now);
+      tick++;
+    }
+  }
+
+  private long waitForNextTick() {
+    final long deadline = tickNanos * (tick + 1);
+    while (true) {
+      final long now = System.nanoTime() - startTime;
+      final long sleepNanos = deadline - now;
+      if (sleepNanos <= 0) {
+        return now;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+      } catch (InterruptedException e) {
+        if (stopped) {
+          return -1;
+        }
+      }
+    }
+  }
+
+  private void transferNewTimeouts() {
+    Timeout timeout;
+    while ((timeout = newTimeouts.poll()) != null) {
+      if (timeout.state.get() != INIT) {
+        continue;
+      }
+      final long calculated = timeout.deadline / tickNanos;
+      timeout.remainingRounds = (calculated - tick) / wheel.length;
+      // Timeouts that should already have expired go into the current bucket
+      final long ticks = Math.max(calculated, tick);
+      wheel[(int) (ticks & mask)].add(timeout);
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelledTimeouts.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  private void run(Timeout timeout) {
+    pending.decrementAndGet();
+    final Runnable task = timeout.task;
+    timeout.task = null;
+    try {
+      task.run();
+    } catch (Throwable e) {
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  /**
+   * A handle to a scheduled task.
+   */
+  public static final class Timeout {
+    private final HashedWheelTimer timer;
+    private final long deadline;
+    private final AtomicInteger state = new AtomicInteger(INIT);
+    private volatile Runnable task;
+    private long remainingRounds;
+
+    // Only accessed by the timer thread
+    private Bucket bucket;
+    private Timeout next;
+    private Timeout prev;
+
+    private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+      this.timer = timer;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the timeout. The task is released immediately and the timeout is removed
+     * from the wheel on the next tick.
+     *
+     * @return true if the timeout was cancelled, false if it had already expired or been cancelled
+     */
+    public boolean cancel() {
+      if (!state.compareAndSet(INIT, CANCELLED)) {
+        return false;
+      }
+      task = null;
+      timer.pending.decrementAndGet();
+      timer.cancelledTimeouts.add(this);
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state.get() == EXPIRED;
+    }
+  }
+
+  /**
+   * A doubly linked list of timeouts, only accessed by the timer thread.
+   */
+  private static final class Bucket {
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void expire(long now) {
+      Timeout timeout = head;
+      while (timeout != null) {
+        final Timeout next = timeout.next;
+        if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+          remove(timeout);
+          if (timeout.state.compareAndSet(INIT, EXPIRED)) {
+            timeout.timer.run(timeout);
+          }
+        } else if (timeout.state.get() == CANCELLED) {
+          remove(timeout);
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.bucket != this) {
+        return;
+      }
+      final Timeout next = timeout.next;
+      if (timeout.prev != null) {
+        timeout.prev.next = next;
+      }
+      if (next != null) {
+        next.prev = timeout.prev;
+      }
+      if (timeout == head) {
+        head = next;
+      }
+      if (timeout == tail) {
+        tail = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+    }
+  }
+
+  private static final class DefaultTimer {
+    private static final HashedWheelTimer INSTANCE =
+            new HashedWheelTimer("HashedWheelTimer", Duration.ofMillis(1), 1024);
+  }
+}
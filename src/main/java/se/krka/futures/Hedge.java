@@ -0,0 +1,139 @@
+package se.krka.futures;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * State of a single hedged request, see {@link PFuture#hedge(Supplier, Duration, int)}.
+ */
+final class Hedge<T> {
+  private final Supplier<PFuture<T>> request;
+  private final Duration delay;
+  private final int maxAttempts;
+  private final Executor executor;
+  private final HashedWheelTimer timer;
+  private final HedgeCounters counters;
+  private final PFuture<T> result = new PFuture<>();
+
+  // Guarded by this
+  private final List<PFuture<T>> attempts = new ArrayList<>();
+  private int failures;
+  private HashedWheelTimer.Timeout timeout;
+
+  /**
+   * Bumped whenever the next attempt is triggered or sent. Each trigger passes on the generation it saw,
+   * so a timeout that fired before it was replaced or cancelled can not send an extra attempt. Guarded by this.
+   */
+  private int generation;
+
+  Hedge(Supplier<PFuture<T>> request, Duration delay, int maxAttempts,
+        Executor executor, HashedWheelTimer timer, HedgeCounters counters) {
+    this.request = request;
+    this.delay = delay;
+    this.maxAttempts = maxAttempts;
+    this.executor = executor;
+    this.timer = timer;
+    this.counters = counters;
+  }
+
+  PFuture<T> start() {
+    result.addCallback(new AbstractFuture.OnDone<>(this::cancelAll));
+    launch(false, 0);
+    return result;
+  }
+
+  /**
+   * Sends the next attempt, unless another attempt has been triggered since this one was.
+   *
+   * @param hedge true if the attempt was triggered by the timeout rather than by a failure
+   * @param expectedGeneration the generation when the attempt was triggered
+   */
+  private void launch(boolean hedge, int expectedGeneration) {
+    final int attempt;
+    synchronized (this) {
+      if (result.isDone() || attempts.size() >= maxAttempts || generation != expectedGeneration) {
+        return;
+      }
+      attempt = attempts.size();
+      attempts.add(null);
+      generation++;
+    }
+    if (hedge) {
+      counters.onFired();
+    } else if (attempt > 0) {
+      counters.onRetry();
+    }
+
+    PFuture<T> future;
+    try {
+      future = request.get();
+      if (future == null) {
+        future = PFuture.exceptionallyCompleted(new NullPointerException("Request returned null"));
+      }
+    } catch (Throwable e) {
+      future = PFuture.exceptionallyCompleted(e);
+    }
+
+    synchronized (this) {
+      attempts.set(attempt, future);
+      // Only schedule the next timeout if no other attempt has been triggered while this one was being sent
+      if (attempt + 1 < maxAttempts && attempt + 1 == attempts.size()) {
+        final int timeoutGeneration = generation;
+        timeout = timer.newTimeout(() -> executor.execute(() -> launch(true, timeoutGeneration)), delay);
+      }
+    }
+    if (result.isDone()) {
+      // Lost the race against a completion, so nobody else will cancel this attempt
+      future.cancel();
+    }
+    future.whenDone((value, throwable) -> onAttemptDone(hedge, value, throwable));
+  }
+
+  private void onAttemptDone(boolean hedge, T value, Throwable throwable) {
+    if (throwable == null) {
+      if (result.completeWith(Result.value(value)) && hedge) {
+        counters.onWon();
+      }
+      return;
+    }
+    final boolean allFailed;
+    final boolean launchNext;
+    final int nextGeneration;
+    synchronized (this) {
+      failures++;
+      allFailed = failures == maxAttempts;
+      // Everything sent so far has failed, so there is no point in waiting for the timer
+      launchNext = !allFailed && failures == attempts.size();
+      if (launchNext) {
+        generation++;
+        if (timeout != null) {
+          timeout.cancel();
+        }
+      }
+      nextGeneration = generation;
+    }
+    if (allFailed) {
+      result.completeWith(Result.exception(throwable));
+    } else if (launchNext) {
+      executor.execute(() -> launch(false, nextGeneration));
+    }
+  }
+
+  private void cancelAll() {
+    final List<PFuture<T>> outstanding;
+    synchronized (this) {
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      outstanding = new ArrayList<>(attempts);
+    }
+    for (PFuture<T> attempt : outstanding) {
+      if (attempt != null) {
+        attempt.cancel();
+      }
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package se.krka.futures;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often hedged requests are sent and how often they win.
+ * Requests sent right away because all earlier requests failed are retries, and are counted separately.
+ */
+public final class HedgeCounters {
+  private static final HedgeCounters GLOBAL = new HedgeCounters();
+
+  private final LongAdder fired = new LongAdder();
+  private final LongAdder won = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+
+  public HedgeCounters() {
+  }
+
+  /**
+   * The counters used by {@link PFuture#hedge(java.util.function.Supplier, java.time.Duration, int)}.
+   */
+  public static HedgeCounters global() {
+    return GLOBAL;
+  }
+
+  /**
+   * @return the number of extra requests sent because the earlier ones were too slow, not counting the first request
+   */
+  public long hedgesFired() {
+    return fired.sum();
+  }
+
+  /**
+   * @return the number of times an extra request produced the winning response
+   */
+  public long hedgesWon() {
+    return won.sum();
+  }
+
+  /**
+   * @return the number of extra requests sent because all the earlier ones had failed
+   */
+  public long retriesFired() {
+    return retries.sum();
+  }
+
+  void onFired() {
+    fired.increment();
+  }
+
+  void onWon() {
+    won.increment();
+  }
+
+  void onRetry() {
+    retries.increment();
+  }
+
+  @Override
+  public String toString() {
+    return "HedgeCounters(fired=" + hedgesFired() + ", won=" + hedgesWon() + ", retries=" + retriesFired() + ")";
+  }
+}
@@ -0,0 +1,245 @@
+package se.krka.futures;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A future of a primitive int, modelled on {@link SimpleFuture}. The value is never boxed
+ * unless the future is bridged to {@link PFuture} or {@link CompletableFuture}.
+ */
+public class IntFuture extends PrimitiveFuture {
+  private int value;
+
+  public IntFuture() {
+  }
+
+  public static IntFuture completed(int value) {
+    final IntFuture future = new IntFuture();
+    future.complete(value);
+    return future;
+  }
+
+  public static IntFuture exceptionallyCompleted(Throwable t) {
+    final IntFuture future = new IntFuture();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  public static IntFuture fromCompletionStage(CompletionStage<Integer> stage) {
+    final IntFuture future = new IntFuture();
+    stage.whenComplete((value, throwable) -> {
+      if (throwable != null) {
+        future.completeExceptionally(unwrap(throwable));
+      } else if (value == null) {
+        future.completeExceptionally(new NullPointerException());
+      } else {
+        future.complete(value);
+      }
+    });
+    return future;
+  }
+
+  public void complete(int value) {
+    if (claim()) {
+      this.value = value;
+      publish();
+    }
+  }
+
+  public int join() throws InterruptedException, ExecutionException {
+    awaitValue();
+    return value;
+  }
+
+  public int join(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    awaitValue(unit.toNanos(timeout));
+    return value;
+  }
+
+  public IntFuture map(IntUnaryOperator transform) {
+    final IntFuture future = new IntFuture();
+    addListener(new ToInt(future, transform));
+    return future;
+  }
+
+  public LongFuture mapToLong(IntToLongFunction transform) {
+    final LongFuture future = new LongFuture();
+    addListener(new ToLong(future, transform));
+    return future;
+  }
+
+  public DoubleFuture mapToDouble(IntToDoubleFunction transform) {
+    final DoubleFuture future = new DoubleFuture();
+    addListener(new ToDouble(future, transform));
+    return future;
+  }
+
+  public <U> SimpleFuture<U> mapToObj(IntFunction<U> transform) {
+    final SimpleFuture<U> future = new SimpleFuture<>();
+    addListener(new ToObj<>(future, transform));
+    return future;
+  }
+
+  public CompletableFuture<Integer> toCompletableFuture() {
+    final CompletableFuture<Integer> future = new CompletableFuture<>();
+    addListener(new ToCompletableFuture(future));
+    return future;
+  }
+
+  public PFuture<Integer> toPFuture() {
+    final PFuture<Integer> future = new PFuture<>();
+    addListener(new ToPFuture(future));
+    return future;
+  }
+
+  private static class ToInt extends Listener {
+    private final IntFuture future;
+    private final IntUnaryOperator transform;
+
+    private ToInt(IntFuture future, IntUnaryOperator transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final int result;
+      try {
+        result = transform.applyAsInt(((IntFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToLong extends Listener {
+    private final LongFuture future;
+    private final IntToLongFunction transform;
+
+    private ToLong(LongFuture future, IntToLongFunction transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final long result;
+      try {
+        result = transform.applyAsLong(((IntFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToDouble extends Listener {
+    private final DoubleFuture future;
+    private final IntToDoubleFunction transform;
+
+    private ToDouble(DoubleFuture future, IntToDoubleFunction transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final double result;
+      try {
+        result = transform.applyAsDouble(((IntFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToObj<U> extends Listener {
+    private final SimpleFuture<U> future;
+    private final IntFunction<U> transform;
+
+    private ToObj(SimpleFuture<U> future, IntFunction<U> transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final U result;
+      try {
+        result = transform.apply(((IntFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToCompletableFuture extends Listener {
+    private final CompletableFuture<Integer> future;
+
+    private ToCompletableFuture(CompletableFuture<Integer> future) {
+      this.future = future;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(ExceptionMode.unshared(exception));
+      } else {
+        future.complete(((IntFuture) source).value);
+      }
+    }
+  }
+
+  private static class ToPFuture extends Listener {
+    private final PFuture<Integer> future;
+
+    private ToPFuture(PFuture<Integer> future) {
+      this.future = future;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeWith(Result.exception(exception));
+      } else {
+        future.completeWith(Result.value(((IntFuture) source).value));
+      }
+    }
+  }
+}
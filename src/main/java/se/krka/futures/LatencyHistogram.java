@@ -0,0 +1,135 @@
+package se.krka.futures;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, in the style of HdrHistogram.
+ *
+ * Values are counted in buckets that double in width for every power of two, each split into 64 linear sub-buckets,
+ * so every recorded value is accurate to within 1.6%, from single nanoseconds up to {@link Long#MAX_VALUE}.
+ * Recording is a single atomic increment, so the histogram can be shared by many threads.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF = SUB_BUCKETS / 2;
+  private static final int LENGTH = indexOf(Long.MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+
+  public void record(long value) {
+    counts.incrementAndGet(indexOf(Math.max(0L, value)));
+  }
+
+  /**
+   * Records the value, and corrects for coordinated omission like HdrHistogram does: if the value is longer than
+   * the expected interval between samples, the samples that would have been taken while this one was stalled
+   * are recorded too, with linearly decreasing values.
+   */
+  public void recordWithExpectedInterval(long value, long expectedInterval) {
+    record(value);
+    if (expectedInterval <= 0) {
+      return;
+    }
+    for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+      record(missing);
+    }
+  }
+
+  public long count() {
+    long total = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the highest value in the bucket that contains the percentile, or 0 if the histogram is empty
+   */
+  public long valueAtPercentile(double percentile) {
+    final long total = count();
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return highestValueAt(i);
+      }
+    }
+    return highestValueAt(LENGTH - 1);
+  }
+
+  public long max() {
+    for (int i = LENGTH - 1; i >= 0; i--) {
+      if (counts.get(i) != 0) {
+        return highestValueAt(i);
+      }
+    }
+    return 0;
+  }
+
+  public double mean() {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      final long count = counts.get(i);
+      if (count != 0) {
+        total += count;
+        sum += (double) count * ((lowestValueAt(i) + highestValueAt(i)) / 2.0);
+      }
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+
+  /**
+   * Adds all the values of the other histogram to this one.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < LENGTH; i++) {
+      final long count = other.counts.get(i);
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+  }
+
+  public void reset() {
+    for (int i = 0; i < LENGTH; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  // Values below SUB_BUCKETS have their own index. Above that, each power of two gets HALF sub-buckets.
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+    final int subBucket = (int) (value >>> shift);
+    return SUB_BUCKETS + (shift - 1) * HALF + (subBucket - HALF);
+  }
+
+  static long lowestValueAt(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index - SUB_BUCKETS) / HALF + 1;
+    final long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+    return subBucket << shift;
+  }
+
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index - SUB_BUCKETS) / HALF + 1;
+    final long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+    // For the last bucket this wraps around to exactly Long.MAX_VALUE
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,245 @@
+package se.krka.futures;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongFunction;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongToIntFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A future of a primitive long, modelled on {@link SimpleFuture}. The value is never boxed
+ * unless the future is bridged to {@link PFuture} or {@link CompletableFuture}.
+ */
+public class LongFuture extends PrimitiveFuture {
+  private long value;
+
+  public LongFuture() {
+  }
+
+  public static LongFuture completed(long value) {
+    final LongFuture future = new LongFuture();
+    future.complete(value);
+    return future;
+  }
+
+  public static LongFuture exceptionallyCompleted(Throwable t) {
+    final LongFuture future = new LongFuture();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  public static LongFuture fromCompletionStage(CompletionStage<Long> stage) {
+    final LongFuture future = new LongFuture();
+    stage.whenComplete((value, throwable) -> {
+      if (throwable != null) {
+        future.completeExceptionally(unwrap(throwable));
+      } else if (value == null) {
+        future.completeExceptionally(new NullPointerException());
+      } else {
+        future.complete(value);
+      }
+    });
+    return future;
+  }
+
+  public void complete(long value) {
+    if (claim()) {
+      this.value = value;
+      publish();
+    }
+  }
+
+  public long join() throws InterruptedException, ExecutionException {
+    awaitValue();
+    return value;
+  }
+
+  public long join(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    awaitValue(unit.toNanos(timeout));
+    return value;
+  }
+
+  public LongFuture map(LongUnaryOperator transform) {
+    final LongFuture future = new LongFuture();
+    addListener(new ToLong(future, transform));
+    return future;
+  }
+
+  public IntFuture mapToInt(LongToIntFunction transform) {
+    final IntFuture future = new IntFuture();
+    addListener(new ToInt(future, transform));
+    return future;
+  }
+
+  public DoubleFuture mapToDouble(LongToDoubleFunction transform) {
+    final DoubleFuture future = new DoubleFuture();
+    addListener(new ToDouble(future, transform));
+    return future;
+  }
+
+  public <U> SimpleFuture<U> mapToObj(LongFunction<U> transform) {
+    final SimpleFuture<U> future = new SimpleFuture<>();
+    addListener(new ToObj<>(future, transform));
+    return future;
+  }
+
+  public CompletableFuture<Long> toCompletableFuture() {
+    final CompletableFuture<Long> future = new CompletableFuture<>();
+    addListener(new ToCompletableFuture(future));
+    return future;
+  }
+
+  public PFuture<Long> toPFuture() {
+    final PFuture<Long> future = new PFuture<>();
+    addListener(new ToPFuture(future));
+    return future;
+  }
+
+  private static class ToInt extends Listener {
+    private final IntFuture future;
+    private final LongToIntFunction transform;
+
+    private ToInt(IntFuture future, LongToIntFunction transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final int result;
+      try {
+        result = transform.applyAsInt(((LongFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToLong extends Listener {
+    private final LongFuture future;
+    private final LongUnaryOperator transform;
+
+    private ToLong(LongFuture future, LongUnaryOperator transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final long result;
+      try {
+        result = transform.applyAsLong(((LongFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToDouble extends Listener {
+    private final DoubleFuture future;
+    private final LongToDoubleFunction transform;
+
+    private ToDouble(DoubleFuture future, LongToDoubleFunction transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final double result;
+      try {
+        result = transform.applyAsDouble(((LongFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToObj<U> extends Listener {
+    private final SimpleFuture<U> future;
+    private final LongFunction<U> transform;
+
+    private ToObj(SimpleFuture<U> future, LongFunction<U> transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(exception);
+        return;
+      }
+      final U result;
+      try {
+        result = transform.apply(((LongFuture) source).value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(result);
+    }
+  }
+
+  private static class ToCompletableFuture extends Listener {
+    private final CompletableFuture<Long> future;
+
+    private ToCompletableFuture(CompletableFuture<Long> future) {
+      this.future = future;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeExceptionally(ExceptionMode.unshared(exception));
+      } else {
+        future.complete(((LongFuture) source).value);
+      }
+    }
+  }
+
+  private static class ToPFuture extends Listener {
+    private final PFuture<Long> future;
+
+    private ToPFuture(PFuture<Long> future) {
+      this.future = future;
+    }
+
+    @Override
+    void fire(PrimitiveFuture source) {
+      final Throwable exception = source.exception();
+      if (exception != null) {
+        future.completeWith(Result.exception(exception));
+      } else {
+        future.completeWith(Result.value(((LongFuture) source).value));
+      }
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package se.krka.futures;
+
+/**
+ * Receives the timing of instrumented stages, see {@link StageInstrumentation}.
+ */
+public interface MetricsSink {
+  /**
+   * Called on the thread that ran the stage, right after it finished. Implementations must be cheap and must not throw,
+   * since they run on the executor threads of every instrumented stage.
+   *
+   * @param stage the name of the stage
+   * @param enqueuedNanos when the stage was handed to the executor, in {@link System#nanoTime()}
+   * @param startedNanos when the executor started running the stage
+   * @param finishedNanos when the stage finished running
+   * @param thread the thread that ran the stage
+   */
+  void onStage(String stage, long enqueuedNanos, long startedNanos, long finishedNanos, Thread thread);
+}
@@ -1,82 +1,759 @@
 package se.krka.futures;
 
-import java.util.concurrent.CancellationException;
+import com.spotify.futures.Function3;
+
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A read-only future, completed through a {@link Promise}.
+ *
+ * Each stage is a single object: the stage is both the future returned to the caller and the callback
+ * registered on the future it was derived from.
+ */
+public class PFuture<T> extends AbstractFuture<T> {
+  private static final PFuture<?> NULL = new PFuture<>(Result.NULL);
+  private static final PFuture<Boolean> TRUE = new PFuture<>(Result.TRUE);
+  private static final PFuture<Boolean> FALSE = new PFuture<>(Result.FALSE);
+
+  /**
+   * Shared futures for the same small integers that {@link Integer#valueOf(int)} caches.
+   */
+  private static final int SMALL_INTEGER_MIN = -128;
+  private static final int SMALL_INTEGER_MAX = 127;
+  private static final PFuture<?>[] SMALL_INTEGERS = new PFuture<?>[SMALL_INTEGER_MAX - SMALL_INTEGER_MIN + 1];
+
+  static {
+    for (int i = 0; i < SMALL_INTEGERS.length; i++) {
+      SMALL_INTEGERS[i] = new PFuture<>(Result.value(SMALL_INTEGER_MIN + i));
+    }
+  }
+
+  PFuture() {
+  }
+
+  private PFuture(Result<T> result) {
+    super(result);
+  }
+
+  /**
+   * Returns a completed future. Futures for null, booleans and small integers are shared constants,
+   * which is safe since a {@link PFuture} can not be completed by its consumers.
+   */
+  public static <T> PFuture<T> completed(T value) {
+    final PFuture<?> shared = smallInteger(value);
+    return shared != null ? cast(shared) : fromResult(Result.value(value));
+  }
+
+  public static PFuture<Void> completedVoid() {
+    return cast(NULL);
+  }
+
+  public static <T> PFuture<T> exceptionallyCompleted(Throwable t) {
+    return new PFuture<>(Result.exception(t));
+  }
+
+  private static <T> PFuture<T> fromResult(Result<T> result) {
+    if (result == Result.NULL) {
+      return cast(NULL);
+    } else if (result == Result.TRUE) {
+      return cast(TRUE);
+    } else if (result == Result.FALSE) {
+      return cast(FALSE);
+    } else if (result.throwable == null) {
+      final PFuture<?> shared = smallInteger(result.value);
+      if (shared != null) {
+        return cast(shared);
+      }
+    }
+    return new PFuture<>(result);
+  }
+
+  private static PFuture<?> smallInteger(Object value) {
+    if (value instanceof Integer) {
+      final int i = (Integer) value;
+      if (i >= SMALL_INTEGER_MIN && i <= SMALL_INTEGER_MAX) {
+        return SMALL_INTEGERS[i - SMALL_INTEGER_MIN];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns a future with the result of the stage. Completed {@link CompletableFuture}s are copied directly.
+   * If the stage is a {@link CompletableFuture}, cancelling the returned future cancels it.
+   */
+  public static <T> PFuture<T> fromCompletionStage(CompletionStage<T> stage) {
+    if (stage instanceof CompletableFuture) {
+      final CompletableFuture<T> future = (CompletableFuture<T>) stage;
+      if (future.isDone() && !future.isCompletedExceptionally()) {
+        return completed(future.join());
+      }
+    }
+    final PFuture<T> future = new PFuture<>();
+    stage.whenComplete((value, throwable) ->
+            future.completeWith(throwable == null ? Result.value(value) : Result.exception(unwrap(throwable))));
+    if (stage instanceof CompletableFuture) {
+      future.addCallback(new OnCancel<>(() -> ((CompletableFuture<T>) stage).cancel(false)));
+    }
+    return future;
+  }
+
+  /**
+   * Returns a future with the values of all the futures, in the same order.
+   * Fails as soon as any of the futures fails.
+   */
+  public static <T> PFuture<List<T>> allAsList(List<? extends PFuture<? extends T>> futures) {
+    return collect(futures, null, Combiner::asList);
+  }
+
+  /**
+   * Returns a future with the values of all the futures, in the same order.
+   * Failed futures are replaced by the value from {@code defaultValueMapper}.
+   */
+  public static <T> PFuture<List<T>> successfulAsList(
+          List<? extends PFuture<? extends T>> futures, Function<Throwable, ? extends T> defaultValueMapper) {
+    return collect(futures, defaultValueMapper, Combiner::asList);
+  }
+
+  public static <A, B, R> PFuture<R> combine(
+          PFuture<A> a, PFuture<B> b, BiFunction<? super A, ? super B, ? extends R> function) {
+    return collect(List.of(a, b), null, values -> function.apply(cast(values[0]), cast(values[1])));
+  }
+
+  public static <A, B, C, R> PFuture<R> combine(
+          PFuture<A> a, PFuture<B> b, PFuture<C> c, Function3<? super A, ? super B, ? super C, ? extends R> function) {
+    return collect(List.of(a, b, c), null, values -> function.apply(cast(values[0]), cast(values[1]), cast(values[2])));
+  }
+
+  private static <R> PFuture<R> collect(
+          List<? extends PFuture<?>> futures, Function<Throwable, ?> defaultValueMapper, Function<Object[], ? extends R> finisher) {
+    final PFuture<R> result = new PFuture<>();
+    final Combiner<R> combiner = new Combiner<R>(futures.size(), finisher) {
+      @Override
+      void succeed(R value) {
+        result.completeWith(Result.value(value));
+      }
+
+      @Override
+      void fail(Throwable t) {
+        result.completeWith(Result.exception(t));
+      }
+    };
+    int index = 0;
+    for (PFuture<?> input : futures) {
+      if (FutureTracer.current != null) {
+        FutureTracer.onEdge(result, input);
+      }
+      final PFuture<Object> untyped = cast(input);
+      untyped.addCallback(new Collect<>(combiner, index++, defaultValueMapper));
+    }
+    combiner.completeIfEmpty();
+    return result;
+  }
+
+  /**
+   * Calls the function for each input, with at most {@code maxInFlight} calls in flight at a time,
+   * and returns a future with the values of the calls in the same order as the inputs.
+   * The next input is started as soon as any call completes, from its completion callback.
+   *
+   * Fails as soon as any call fails, without starting any more calls, and cancels the calls still in flight.
+   * Cancelling the returned future also cancels the calls in flight.
+   */
+  public static <A, B> PFuture<List<B>> traverse(
+          Iterable<? extends A> inputs, Function<? super A, PFuture<B>> function, int maxInFlight) {
+    return Traversal.start(inputs, function, maxInFlight, true);
+  }
+
+  /**
+   * Like {@link #traverse(Iterable, Function, int)}, but the values are in the order the calls completed.
+   */
+  public static <A, B> PFuture<List<B>> traverseUnordered(
+          Iterable<? extends A> inputs, Function<? super A, PFuture<B>> function, int maxInFlight) {
+    return Traversal.start(inputs, function, maxInFlight, false);
+  }
 
-public class PFuture<T> {
-  private final CompletableFuture<T> future;
+  /**
+   * Returns a future with the value of the first future to succeed. Once there is a winner, all the other futures
+   * are cancelled so their producers can abandon the work. Fails with the last exception if all the futures fail.
+   * Cancelling the returned future cancels all the futures.
+   */
+  public static <T> PFuture<T> race(List<? extends PFuture<? extends T>> futures) {
+    if (futures.isEmpty()) {
+      return exceptionallyCompleted(new IllegalArgumentException("Can not race an empty list of futures"));
+    }
+    final PFuture<T> result = new PFuture<>();
+    final AtomicInteger remaining = new AtomicInteger(futures.size());
+    for (PFuture<? extends T> input : futures) {
+      input.whenDone((value, throwable) -> {
+        if (throwable == null) {
+          result.completeWith(Result.value(value));
+        } else if (remaining.decrementAndGet() == 0) {
+          result.completeWith(Result.exception(throwable));
+        }
+      });
+    }
+    result.addCallback(new OnDone<>(() -> futures.forEach(PFuture::cancel)));
+    return result;
+  }
+
+  /**
+   * Sends a request, and sends another one if there is no successful response within the given delay,
+   * up to {@code maxAttempts} requests in total. The first successful response wins and the other requests are cancelled.
+   * A failed request is followed by the next attempt right away. Fails with the last exception if all attempts fail.
+   *
+   * The requests after the first one are started on the common pool, so the supplier never runs on the timer thread.
+   */
+  public static <T> PFuture<T> hedge(Supplier<PFuture<T>> request, Duration delay, int maxAttempts) {
+    return hedge(request, delay, maxAttempts, ForkJoinPool.commonPool(), HashedWheelTimer.defaultTimer(), HedgeCounters.global());
+  }
+
+  public static <T> PFuture<T> hedge(
+          Supplier<PFuture<T>> request, Duration delay, int maxAttempts,
+          Executor executor, HashedWheelTimer timer, HedgeCounters counters) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+    }
+    return new Hedge<>(request, delay, maxAttempts, executor, timer, counters).start();
+  }
+
+  /**
+   * Cancels this future if it is not already complete. If every stage derived from the future this one was
+   * derived from has now been cancelled, that future is cancelled too, and so on upstream.
+   * A future that still has other consumers, such as a {@link #whenDone(BiConsumer)} listener or a combinator,
+   * is not cancelled.
+   * If this is the future of a {@link Promise}, the producer can see it with {@link Promise#isCancelled()}.
+   *
+   * The exception is created according to {@link ExceptionMode#getDefault()}.
+   *
+   * @return true if this call cancelled the future
+   */
+  public boolean cancel() {
+    return cancelUpstream(ExceptionMode.getDefault());
+  }
+
+  /**
+   * Like {@link #cancel()}, with the given mode for creating the {@link java.util.concurrent.CancellationException}.
+   */
+  public boolean cancel(ExceptionMode mode) {
+    return cancelUpstream(mode);
+  }
 
-  PFuture(CompletableFuture<T> future) {
-    this.future = future;
+  /**
+   * Returns a view of this future where {@link #map}, {@link #tap} and {@link #flatMap} always run on the executor,
+   * and {@link #mapAsync} moves the binding to its own executor.
+   * A stage is only dispatched if the completing thread is not already running on the right executor,
+   * so a chain that stays on one executor does not pay for a queue hop per stage.
+   */
+  public PFuture<T> withAffinity(Executor executor) {
+    return then(new AsyncMap<T, T>(Function.identity(), AffinityExecutor.of(executor)));
+  }
+
+  /**
+   * Runs the function on the executor. If this future has affinity, or the executor is an {@link AffinityExecutor},
+   * the returned future is bound to the executor.
+   */
+  public <R> PFuture<R> mapAsync(Function<T, R> function, Executor executor) {
+    if (affinity() == null) {
+      return then(new AsyncMap<>(function, executor));
+    }
+    return then(new AsyncMap<>(function, AffinityExecutor.of(executor)));
+  }
+
+  /**
+   * Like {@link #mapAsync(Function, Executor)}, and reports the queue wait and execution time of the stage
+   * under the given name while {@link StageInstrumentation} is enabled.
+   */
+  public <R> PFuture<R> mapAsync(String stage, Function<T, R> function, Executor executor) {
+    if (StageInstrumentation.getSink() == null) {
+      return mapAsync(function, executor);
+    }
+    if (affinity() == null && !(executor instanceof AffinityExecutor)) {
+      return then(new AsyncMap<>(function, StageInstrumentation.instrument(stage, executor)));
+    }
+    // Only this stage is timed, the stages after it are bound to the plain executor
+    final AffinityExecutor target = AffinityExecutor.of(executor);
+    return then(new TimedAsyncMap<>(function, StageInstrumentation.instrument(stage, target), target));
   }
 
   public <R> PFuture<R> map(Function<T, R> function) {
-    return new PFuture<>(future.thenApply(function));
+    final AffinityExecutor affinity = affinity();
+    if (affinity != null) {
+      return then(new AsyncMap<>(function, affinity));
+    }
+    // Already completed futures are transformed directly, without registering a callback
+    final Result<T> result = resultNow();
+    if (result != null) {
+      if (result.throwable != null) {
+        return cast(this);
+      }
+      return fromResult(result.mapValue(function));
+    }
+    return then(new MapStage<>(function));
   }
 
   public PFuture<T> tap(Consumer<T> function) {
-    return new PFuture<>(future.thenApply(t -> {
-      function.accept(t);
-      return t;
-    }));
+    final AffinityExecutor affinity = affinity();
+    if (affinity != null) {
+      return then(new AsyncMap<T, T>(t -> {
+        function.accept(t);
+        return t;
+      }, affinity));
+    }
+    final Result<T> result = resultNow();
+    if (result != null) {
+      if (result.throwable == null) {
+        try {
+          function.accept(result.value);
+        } catch (Exception e) {
+          return exceptionallyCompleted(e);
+        }
+      }
+      return this;
+    }
+    return then(new TapStage<>(function));
   }
 
   public <R> PFuture<R> flatMap(Function<T, PFuture<R>> function) {
-    return new PFuture<>(future.thenCompose(t -> function.apply(t).future));
+    final AffinityExecutor affinity = affinity();
+    if (affinity != null) {
+      return then(new AsyncCompose<>(function, affinity));
+    }
+    final Result<T> result = resultNow();
+    if (result != null) {
+      if (result.throwable != null) {
+        return cast(this);
+      }
+      final PFuture<R> composed;
+      try {
+        composed = function.apply(result.value);
+      } catch (Exception e) {
+        return exceptionallyCompleted(e);
+      }
+      if (composed == null) {
+        return exceptionallyCompleted(new NullPointerException());
+      }
+      return composed;
+    }
+    return then(new ComposeStage<>(function));
   }
 
-  public static <R> PFuture<R> flatten(PFuture<PFuture<R>> future) {
-    return new PFuture<>(future.future.thenCompose(v -> v.future));
+  /**
+   * Returns a future with the value of one of the functions, depending on whether this future succeeds or fails.
+   * The exception is passed to {@code onError} exactly as this future was completed with it.
+   */
+  public <R> PFuture<R> fold(Function<? super T, ? extends R> onValue, Function<Throwable, ? extends R> onError) {
+    final AffinityExecutor affinity = affinity();
+    if (affinity != null) {
+      // Run the functions on the executor, and keep the stages after it bound to it
+      return withAffinity(affinity).foldStage(onValue, onError).withAffinity(affinity);
+    }
+    return foldStage(onValue, onError);
+  }
+
+  /**
+   * Replaces a failure with a value. The function gets the exception exactly as the failed stage was completed with it,
+   * since stages pass failures on unchanged instead of wrapping them.
+   */
+  public PFuture<T> exceptionally(Function<Throwable, ? extends T> function) {
+    if (isCompletedNormally()) {
+      return this;
+    }
+    return fold(value -> value, function);
+  }
+
+  private <R> PFuture<R> foldStage(Function<? super T, ? extends R> onValue, Function<Throwable, ? extends R> onError) {
+    final Result<T> result = resultNow();
+    if (result != null) {
+      return fromResult(FoldStage.apply(result, onValue, onError));
+    }
+    return then(new FoldStage<>(onValue, onError));
+  }
+
+  /**
+   * Returns a future that fails with a {@link TimeoutException} if this future is not completed within the given time.
+   * The timeout completion, and therefore any dependent stages, run on the given executor instead of the timer thread.
+   */
+  public PFuture<T> orTimeout(Duration timeout, Executor executor) {
+    return orTimeout(timeout, executor, HashedWheelTimer.defaultTimer());
+  }
+
+  public PFuture<T> orTimeout(Duration timeout, Executor executor, HashedWheelTimer timer) {
+    return orTimeout(timeout, executor, timer, ExceptionMode.getDefault());
+  }
+
+  /**
+   * Like {@link #orTimeout(Duration, Executor, HashedWheelTimer)}, with the given mode for creating the
+   * {@link TimeoutException}. The exception is only created if the timeout fires.
+   */
+  public PFuture<T> orTimeout(Duration timeout, Executor executor, HashedWheelTimer timer, ExceptionMode mode) {
+    return onTimeout(() -> Result.exception(mode.newTimeout()), timeout, executor, timer);
+  }
+
+  /**
+   * Returns a future that completes with the given value if this future is not completed within the given time.
+   * The timeout completion runs on the given executor instead of the timer thread.
+   */
+  public PFuture<T> completeOnTimeout(T value, Duration timeout, Executor executor) {
+    return completeOnTimeout(value, timeout, executor, HashedWheelTimer.defaultTimer());
   }
 
-  public boolean isDone() {
-    return future.isDone();
+  public PFuture<T> completeOnTimeout(T value, Duration timeout, Executor executor, HashedWheelTimer timer) {
+    final Result<T> result = Result.value(value);
+    return onTimeout(() -> result, timeout, executor, timer);
+  }
+
+  private PFuture<T> onTimeout(Supplier<Result<T>> result, Duration timeout, Executor executor, HashedWheelTimer timer) {
+    if (isDone()) {
+      return this;
+    }
+    final AffinityExecutor affinity = affinity();
+    final PFuture<T> stage = affinity == null ? new PFuture<>() : new AsyncMap<>(Function.identity(), affinity);
+    final HashedWheelTimer.Timeout handle =
+            timer.newTimeout(() -> executor.execute(() -> stage.completeWith(result.get())), timeout);
+    // Remove the timeout from the timer as soon as either the future completes or the stage is cancelled
+    addCallback(new CancelTimeout<>(handle));
+    then(stage);
+    stage.addCallback(new CancelTimeout<>(handle));
+    return stage;
+  }
+
+  public static <R> PFuture<R> flatten(PFuture<PFuture<R>> future) {
+    return future.flatMap(Function.identity());
   }
 
   public boolean isCompletedExceptionally() {
-    return future.isCompletedExceptionally();
+    final Result<T> result = resultNow();
+    return result != null && result.throwable != null;
   }
 
   public boolean isCompletedNormally() {
-    return future.isDone() && !future.isCompletedExceptionally();
+    final Result<T> result = resultNow();
+    return result != null && result.throwable == null;
   }
 
+  /**
+   * Returns the outcome of this future without blocking, throwing or wrapping the exception.
+   *
+   * @return the result, or null if the future is not complete yet
+   */
+  public Result<T> peekResult() {
+    return resultNow();
+  }
 
   public Throwable getException() {
-    if (isCompletedExceptionally()) {
-      try {
-        T value = future.join();
-        assert value != null;
-      } catch (CancellationException e) {
-        return e;
-      } catch (CompletionException e) {
-        return e.getCause();
-      }
-      throw new IllegalStateException("Unreachable code");
+    final Result<T> result = resultNow();
+    if (result != null && result.throwable != null) {
+      return result.throwable;
     } else {
       throw new IllegalStateException("Future does not have an exception");
     }
   }
 
   public T getValue() {
-    if (isCompletedNormally()) {
-      return future.join();
+    final Result<T> result = resultNow();
+    if (result != null && result.throwable == null) {
+      return result.value;
     } else {
       throw new IllegalStateException("Future does not have a value");
     }
   }
 
+  /**
+   * Returns a {@link CompletableFuture} with the same result, without any intermediate stages.
+   * Completed futures are copied directly. While the {@link BlockingDetector} is on, waiting on the returned future
+   * is checked too.
+   */
+  public CompletableFuture<T> toCompletableFuture() {
+    final Result<T> result = resultNow();
+    if (result != null) {
+      return result.throwable == null
+              ? CompletableFuture.completedFuture(result.value)
+              : CompletableFuture.failedFuture(ExceptionMode.unshared(result.throwable));
+    }
+    final CompletableFuture<T> future = BlockingDetector.newCompletableFuture();
+    whenDone((value, throwable) -> {
+      if (throwable != null) {
+        future.completeExceptionally(ExceptionMode.unshared(throwable));
+      } else {
+        future.complete(value);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Invokes the callback with either the value or the exception once the future completes,
+   * or directly if it is already complete. The exception is passed on exactly as the future was completed with it.
+   */
+  public void whenDone(BiConsumer<? super T, Throwable> callback) {
+    addCallback(new Listener<>(callback));
+  }
+
+  /**
+   * @return the executor all dependent stages run on, or null if they run on whichever thread completes this future
+   */
+  AffinityExecutor affinity() {
+    return null;
+  }
+
+  /**
+   * Registers a new stage on this future.
+   */
+  private <R, S extends PFuture<R>> S then(S stage) {
+    stage.dependOn(this);
+    addDependent(stage);
+    return stage;
+  }
+
+  private static Throwable unwrap(Throwable t) {
+    if (t instanceof CompletionException && t.getCause() != null) {
+      return t.getCause();
+    }
+    return t;
+  }
+
   @Override
   public String toString() {
-    if (isCompletedExceptionally()) {
-      return "PFuture(exception=" + getException().getMessage() + ")";
-    } else if (isCompletedNormally()) {
-      return "PFuture(value=" + getValue() + ")";
-    } else {
+    final Result<T> result = resultNow();
+    if (result == null) {
       return "PFuture(incomplete)";
+    } else if (result.throwable != null) {
+      return "PFuture(exception=" + result.throwable.getMessage() + ")";
+    } else {
+      return "PFuture(value=" + result.value + ")";
+    }
+  }
+
+  /**
+   * Stages drop their function once it has run, so nothing it captured outlives the stage.
+   * A stage that has already been cancelled skips its function.
+   */
+  private static class MapStage<T, R> extends PFuture<R> {
+    private Function<? super T, ? extends R> function;
+
+    private MapStage(Function<? super T, ? extends R> function) {
+      this.function = function;
+    }
+
+    @Override
+    void accept(Result<Object> input) {
+      final Function<? super T, ? extends R> transform = function;
+      function = null;
+      if (!isDone()) {
+        completeWith(input.<T>cast().mapValue(transform));
+      }
+    }
+  }
+
+  private static final class TapStage<T> extends PFuture<T> {
+    private Consumer<T> consumer;
+
+    private TapStage(Consumer<T> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    void accept(Result<Object> input) {
+      final Consumer<T> action = consumer;
+      consumer = null;
+      if (isDone()) {
+        return;
+      }
+      final Result<T> result = input.cast();
+      if (result.throwable == null) {
+        try {
+          action.accept(result.value);
+        } catch (Exception e) {
+          completeWith(Result.exception(e));
+          return;
+        }
+      }
+      // The result passes through unchanged, so it is shared instead of copied
+      completeWith(result);
+    }
+  }
+
+  private static final class FoldStage<T, R> extends PFuture<R> {
+    private Function<? super T, ? extends R> onValue;
+    private Function<Throwable, ? extends R> onError;
+
+    private FoldStage(Function<? super T, ? extends R> onValue, Function<Throwable, ? extends R> onError) {
+      this.onValue = onValue;
+      this.onError = onError;
+    }
+
+    @Override
+    void accept(Result<Object> input) {
+      final Function<? super T, ? extends R> valueFunction = onValue;
+      final Function<Throwable, ? extends R> errorFunction = onError;
+      onValue = null;
+      onError = null;
+      if (!isDone()) {
+        completeWith(apply(input.<T>cast(), valueFunction, errorFunction));
+      }
+    }
+
+    private static <T, R> Result<R> apply(
+            Result<T> input, Function<? super T, ? extends R> onValue, Function<Throwable, ? extends R> onError) {
+      try {
+        return Result.value(input.fold(onValue, onError));
+      } catch (Exception e) {
+        return Result.exception(e);
+      }
+    }
+  }
+
+  /**
+   * Runs the function on an executor. If the executor is an {@link AffinityExecutor},
+   * the stages derived from this one run on it as well.
+   */
+  private static class AsyncMap<T, R> extends MapStage<T, R> implements Runnable {
+    private final Executor executor;
+    private Result<Object> input;
+
+    private AsyncMap(Function<? super T, ? extends R> function, Executor executor) {
+      super(function);
+      this.executor = executor;
+    }
+
+    @Override
+    void accept(Result<Object> result) {
+      if (isDone()) {
+        super.accept(result);
+        return;
+      }
+      input = result;
+      try {
+        executor.execute(this);
+      } catch (Throwable e) {
+        completeWith(Result.exception(e));
+      }
+    }
+
+    @Override
+    public void run() {
+      final Result<Object> result = input;
+      input = null;
+      final boolean marked = BlockingDetector.enterStage();
+      try {
+        super.accept(result);
+      } finally {
+        BlockingDetector.exitStage(marked);
+      }
+    }
+
+    @Override
+    AffinityExecutor affinity() {
+      return executor instanceof AffinityExecutor ? (AffinityExecutor) executor : null;
+    }
+  }
+
+  /**
+   * Dispatches through an instrumented executor, but binds the stages after it to the plain one.
+   */
+  private static final class TimedAsyncMap<T, R> extends AsyncMap<T, R> {
+    private final AffinityExecutor affinity;
+
+    private TimedAsyncMap(Function<? super T, ? extends R> function, Executor executor, AffinityExecutor affinity) {
+      super(function, executor);
+      this.affinity = affinity;
+    }
+
+    @Override
+    AffinityExecutor affinity() {
+      return affinity;
+    }
+  }
+
+  /**
+   * Applies the function, and then relays the result of the composed future.
+   * The stage is pushed onto the composed future itself, so composing does not allocate anything else.
+   */
+  private static class ComposeStage<T, R> extends PFuture<R> {
+    private Function<? super T, PFuture<R>> function;
+
+    private ComposeStage(Function<? super T, PFuture<R>> function) {
+      this.function = function;
+    }
+
+    @Override
+    void accept(Result<Object> input) {
+      final Function<? super T, PFuture<R>> transform = function;
+      if (transform == null) {
+        // The result of the composed future, or a late call after the stage was cancelled
+        completeWith(input.cast());
+        return;
+      }
+      function = null;
+      if (isDone()) {
+        return;
+      }
+      if (input.throwable != null) {
+        completeWith(input.cast());
+        return;
+      }
+      final PFuture<R> composed;
+      try {
+        composed = transform.apply(cast(input.value));
+      } catch (Exception e) {
+        completeWith(Result.exception(e));
+        return;
+      }
+      if (composed == null) {
+        completeWith(Result.exception(new NullPointerException()));
+        return;
+      }
+      // Cancelling this stage should reach the composed future, since that is where the work is now
+      dependOn(composed);
+      composed.addDependent(this);
+    }
+  }
+
+  private static final class AsyncCompose<T, R> extends ComposeStage<T, R> implements Runnable {
+    private final AffinityExecutor executor;
+    private Result<Object> input;
+
+    private AsyncCompose(Function<? super T, PFuture<R>> function, AffinityExecutor executor) {
+      super(function);
+      this.executor = executor;
+    }
+
+    @Override
+    void accept(Result<Object> result) {
+      if (isDone() || input != null) {
+        super.accept(result);
+        return;
+      }
+      input = result;
+      executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+      final boolean marked = BlockingDetector.enterStage();
+      try {
+        super.accept(input);
+      } finally {
+        BlockingDetector.exitStage(marked);
+      }
+    }
+
+    @Override
+    AffinityExecutor affinity() {
+      return executor;
     }
   }
 }
@@ -0,0 +1,292 @@
+package se.krka.futures;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A registry of incomplete futures, for finding futures that are never completed.
+ *
+ * A future that is never completed keeps all the callbacks and stages registered on it reachable for as long as the
+ * future itself is, and the usual symptom is a slowly growing heap. While the registry is enabled, every
+ * {@link SimpleFuture} and every {@link Promise} is counted by its creation site, the first caller outside the
+ * futures themselves, until it completes. The oldest pending futures can be dumped on demand, with the stack trace
+ * of their creation for one in every {@link #setStackSampleInterval(int) n} futures from each site.
+ *
+ * A promise or a simple future that is garbage collected before it was completed can never be completed,
+ * so it is reported as a leak to the {@link #setLeakListener(Consumer) leak listener}.
+ *
+ * The registry is off by default, and then costs a volatile read per future. When enabled, creating a future
+ * walks the stack to find the creation site, so it is meant for diagnostics rather than for always-on use.
+ */
+public final class PendingFutures {
+  private static final Cleaner CLEANER = Cleaner.create();
+  private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+  private static final List<String> FUTURE_CLASSES = List.of(
+          PendingFutures.class.getName(),
+          AbstractFuture.class.getName(),
+          SimpleFuture.class.getName(),
+          PFuture.class.getName(),
+          Promise.class.getName());
+
+  private static final ConcurrentMap<Object, Pending> PENDING = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, Site> SITES = new ConcurrentHashMap<>();
+
+  static volatile boolean enabled;
+
+  private static volatile int stackSampleInterval = 64;
+  private static volatile Consumer<String> leakListener = System.err::println;
+
+  private PendingFutures() {
+  }
+
+  public static void enable() {
+    enabled = true;
+  }
+
+  /**
+   * Disables the registry and forgets all the futures and counts.
+   */
+  public static void disable() {
+    enabled = false;
+    PENDING.clear();
+    SITES.clear();
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Keeps the creation stack trace of the first future from each site, and then of every n-th one.
+   */
+  public static void setStackSampleInterval(int interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("interval must be positive: " + interval);
+    }
+    stackSampleInterval = interval;
+  }
+
+  /**
+   * Sets the listener for leak reports. Reports are printed to standard error by default.
+   */
+  public static void setLeakListener(Consumer<String> listener) {
+    leakListener = Objects.requireNonNull(listener);
+  }
+
+  /**
+   * @return the number of incomplete futures per creation site
+   */
+  public static Map<String, Long> pendingBySite() {
+    return count(site -> site.pending);
+  }
+
+  /**
+   * @return the number of futures per creation site that were garbage collected before they were completed
+   */
+  public static Map<String, Long> leaksBySite() {
+    return count(site -> site.leaked);
+  }
+
+  private static Map<String, Long> count(Function<Site, LongAdder> counter) {
+    final Map<String, Long> result = new TreeMap<>();
+    SITES.forEach((name, site) -> {
+      final long count = counter.apply(site).sum();
+      if (count != 0) {
+        result.put(name, count);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @return up to {@code limit} of the incomplete futures that are at least {@code minAge} old, oldest first
+   */
+  public static List<Pending> oldest(Duration minAge, int limit) {
+    final long createdBefore = System.nanoTime() - minAge.toNanos();
+    return PENDING.values().stream()
+            .filter(pending -> pending.createdNanos - createdBefore <= 0)
+            .sorted(Comparator.comparingLong(pending -> pending.createdNanos - createdBefore))
+            .limit(limit)
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * Formats the oldest incomplete futures, with their creation stack traces where they were sampled.
+   */
+  public static String dump(Duration minAge, int limit) {
+    final List<Pending> oldest = oldest(minAge, limit);
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Pending futures older than ").append(minAge).append(": ").append(oldest.size()).append('\n');
+    for (Pending pending : oldest) {
+      sb.append("  ").append(pending).append('\n');
+      final StackTraceElement[] stack = pending.stack;
+      if (stack != null) {
+        for (StackTraceElement element : stack) {
+          sb.append("      at ").append(element).append('\n');
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Registers a new incomplete future. If the owner, which completes the future, is garbage collected
+   * before the future has been completed, the future is reported as leaked.
+   */
+  static void register(AbstractFuture<?> future, Object owner) {
+    final String siteName = STACK_WALKER.walk(frames -> frames
+            .filter(frame -> !isFutureClass(frame.getClassName()))
+            .findFirst()
+            .map(frame -> frame.toStackTraceElement().toString())
+            .orElse("unknown"));
+    final Site site = SITES.computeIfAbsent(siteName, Site::new);
+    site.created.increment();
+    final StackTraceElement[] stack = (site.created.sum() - 1) % stackSampleInterval == 0
+            ? new Throwable().getStackTrace()
+            : null;
+    final Pending pending = new Pending(future, site, owner instanceof Promise ? "Promise" : "Future", stack);
+    pending.cleanable = CLEANER.register(owner, pending::onCollected);
+    site.pending.increment();
+    PENDING.put(pending, pending);
+  }
+
+  static void onComplete(AbstractFuture<?> future) {
+    if (PENDING.isEmpty()) {
+      return;
+    }
+    final Pending pending = PENDING.remove(new Lookup(future));
+    if (pending != null) {
+      pending.site.pending.decrement();
+      // Unregisters from the cleaner, which runs the action once but finds nothing to do
+      pending.cleanable.clean();
+    }
+  }
+
+  private static boolean isFutureClass(String className) {
+    for (String futureClass : FUTURE_CLASSES) {
+      if (className.startsWith(futureClass)
+              && (className.length() == futureClass.length() || className.charAt(futureClass.length()) == '$')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * An incomplete future. The future is only weakly referenced, so the registry does not keep it reachable.
+   */
+  public static final class Pending {
+    private final WeakReference<AbstractFuture<?>> future;
+    private final int hash;
+    private final Site site;
+    private final String kind;
+    private final long createdNanos = System.nanoTime();
+    private final StackTraceElement[] stack;
+    private Cleaner.Cleanable cleanable;
+
+    private Pending(AbstractFuture<?> future, Site site, String kind, StackTraceElement[] stack) {
+      this.future = new WeakReference<>(future);
+      this.hash = System.identityHashCode(future);
+      this.site = site;
+      this.kind = kind;
+      this.stack = stack;
+    }
+
+    public String getSite() {
+      return site.name;
+    }
+
+    public long getAgeNanos() {
+      return System.nanoTime() - createdNanos;
+    }
+
+    /**
+     * @return the stack trace of the creation of the future, or null if it was not sampled
+     */
+    public StackTraceElement[] getCreationStack() {
+      return stack;
+    }
+
+    private void onCollected() {
+      if (PENDING.remove(this) == null) {
+        // Completed, or the registry was disabled
+        return;
+      }
+      site.pending.decrement();
+      site.leaked.increment();
+      final StringBuilder sb = new StringBuilder();
+      sb.append(kind).append(" created at ").append(site.name)
+              .append(" was garbage collected before it was completed, ")
+              .append(Duration.ofNanos(getAgeNanos()).toMillis()).append(" ms after it was created");
+      if (stack != null) {
+        for (StackTraceElement element : stack) {
+          sb.append("\n    at ").append(element);
+        }
+      }
+      leakListener.accept(sb.toString());
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      final Object referent = future.get();
+      return referent != null && other instanceof Lookup && ((Lookup) other).future == referent;
+    }
+
+    @Override
+    public String toString() {
+      return kind + " created at " + site.name + ", " + Duration.ofNanos(getAgeNanos()).toMillis() + " ms ago";
+    }
+  }
+
+  /**
+   * A key for finding the entry of a future in the registry.
+   */
+  private static final class Lookup {
+    private final AbstractFuture<?> future;
+
+    private Lookup(AbstractFuture<?> future) {
+      this.future = future;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(future);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Pending && ((Pending) other).future.get() == future;
+    }
+  }
+
+  private static final class Site {
+    private final String name;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+
+    private Site(String name) {
+      this.name = name;
+    }
+  }
+}
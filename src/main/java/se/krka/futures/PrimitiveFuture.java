@@ -0,0 +1,128 @@
+package se.krka.futures;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Shared completion machinery for {@link IntFuture}, {@link LongFuture} and {@link DoubleFuture}.
+ * The subclasses store the value in a primitive field, so nothing is boxed on the way through a pipeline.
+ *
+ * The callback stack, the trampoline and the waiters are those of {@link AbstractFuture}. A successful completion
+ * stores the shared {@link #VALUE} result, and the listeners read the value from the primitive field of the future.
+ */
+abstract class PrimitiveFuture extends AbstractFuture<Object> {
+  /**
+   * The result of every successfully completed primitive future. The value itself is in the subclass.
+   */
+  private static final Result<Object> VALUE = new Result<>(null, null);
+
+  private static final VarHandle CLAIMED;
+
+  static {
+    try {
+      CLAIMED = MethodHandles.lookup().findVarHandle(PrimitiveFuture.class, "claimed", boolean.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Set by the first thread that completes the future with a value, so no other thread writes the value field
+   * after it has been published.
+   */
+  private volatile boolean claimed;
+
+  PrimitiveFuture() {
+  }
+
+  public void cancel() {
+    cancel(ExceptionMode.getDefault());
+  }
+
+  public void cancel(ExceptionMode mode) {
+    completeExceptionally(mode.newCancellation());
+  }
+
+  public void completeExceptionally(Throwable t) {
+    Objects.requireNonNull(t);
+    completeWith(Result.exception(t));
+  }
+
+  /**
+   * Claims the right to complete this future with a value. If this returns true, the caller must write the value
+   * and then call {@link #publish()}.
+   */
+  final boolean claim() {
+    return !isDone() && CLAIMED.compareAndSet(this, false, true);
+  }
+
+  final void publish() {
+    completeWith(VALUE);
+  }
+
+  /**
+   * @return the exception if the future completed exceptionally, otherwise null
+   */
+  final Throwable exception() {
+    final Result<Object> result = resultNow();
+    return result != null ? result.throwable : null;
+  }
+
+  final void addListener(Listener listener) {
+    listener.source = this;
+    addCallback(listener);
+  }
+
+  /**
+   * Waits until the future is complete and throws if it completed exceptionally.
+   * When this returns normally the subclass may read its value field.
+   */
+  final void awaitValue() throws InterruptedException, ExecutionException {
+    final Result<Object> result = resultNow();
+    report(result != null ? result : await(true, false, 0L));
+  }
+
+  final void awaitValue(long nanos) throws InterruptedException, ExecutionException, TimeoutException {
+    Result<Object> result = resultNow();
+    if (result == null) {
+      result = await(true, true, nanos);
+      if (result == null) {
+        throw new TimeoutException();
+      }
+    }
+    report(result);
+  }
+
+  private static void report(Result<Object> result) throws ExecutionException {
+    if (result.throwable != null) {
+      throw new ExecutionException(ExceptionMode.unshared(result.throwable));
+    }
+  }
+
+  static Throwable unwrap(Throwable t) {
+    if (t instanceof CompletionException && t.getCause() != null) {
+      return t.getCause();
+    }
+    return t;
+  }
+
+  /**
+   * A callback that reads the value directly from the completed source.
+   */
+  abstract static class Listener extends Callback<Object> {
+    private PrimitiveFuture source;
+
+    @Override
+    final void accept(Result<Object> result) {
+      final PrimitiveFuture completed = source;
+      source = null;
+      fire(completed);
+    }
+
+    abstract void fire(PrimitiveFuture source);
+  }
+}
@@ -1,16 +1,16 @@
 package se.krka.futures;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.function.Function;
-
 /**
  * Alternative wrapper-implementation that separates futures from promises
  */
 public final class Promise<T> {
 
-  private final CompletableFuture<T> producerFuture = new CompletableFuture<>();
+  private final PFuture<T> future = new PFuture<>();
 
   private Promise() {
+    if (PendingFutures.enabled) {
+      PendingFutures.register(future, this);
+    }
   }
 
   public static <T> Promise<T> newPromise() {
@@ -18,18 +18,40 @@ public final class Promise<T> {
   }
 
   public void complete(T value) {
-    producerFuture.complete(value);
+    future.completeWith(Result.value(value));
   }
 
   public void completeExceptionally(Throwable ex) {
-    producerFuture.completeExceptionally(ex);
+    future.completeWith(Result.exception(ex));
   }
 
   public void cancel() {
-    producerFuture.cancel(false);
+    future.cancel();
+  }
+
+  public void cancel(ExceptionMode mode) {
+    future.cancel(mode);
+  }
+
+  /**
+   * @return true if the future was cancelled, for example by a consumer that no longer needs the value
+   */
+  public boolean isCancelled() {
+    return future.isCancelled();
+  }
+
+  /**
+   * Runs the action if the future is cancelled, either directly or because all the stages derived from it were
+   * cancelled. Producers can use this to abort the work behind the promise.
+   */
+  public void onCancel(Runnable action) {
+    future.addCallback(new AbstractFuture.OnCancel<>(action));
   }
 
+  /**
+   * @return the future of this promise, the same instance on every call
+   */
   public PFuture<T> getFuture() {
-    return new PFuture<>(producerFuture);
+    return future;
   }
 }
@@ -0,0 +1,113 @@
+package se.krka.futures;
+
+import java.util.function.Function;
+
+/**
+ * The outcome of a completed future: either a value or an exception.
+ * Results are immutable and are passed on as-is to dependent stages that do not change them,
+ * so an exception travels down a chain without being wrapped or copied.
+ *
+ * Nothing in this class throws or wraps the exception, so inspecting a failed result is free.
+ */
+public final class Result<T> {
+  /**
+   * Shared result for null, which is also the only possible value of a {@code Void} future.
+   */
+  static final Result<?> NULL = new Result<>(null, null);
+  static final Result<Boolean> TRUE = new Result<>(true, null);
+  static final Result<Boolean> FALSE = new Result<>(false, null);
+
+  final T value;
+  final Throwable throwable;
+
+  Result(T value, Throwable throwable) {
+    this.value = value;
+    this.throwable = throwable;
+  }
+
+  static <T> Result<T> value(T value) {
+    if (value == null) {
+      return NULL.cast();
+    } else if (value instanceof Boolean) {
+      return ((Boolean) value ? TRUE : FALSE).cast();
+    }
+    return new Result<>(value, null);
+  }
+
+  static <T> Result<T> exception(Throwable t) {
+    return new Result<>(null, t);
+  }
+
+  public boolean isValue() {
+    return throwable == null;
+  }
+
+  public boolean isException() {
+    return throwable != null;
+  }
+
+  /**
+   * @return the value, or null if this is an exception
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * @return the exception exactly as the future was completed with it, or null if this is a value
+   */
+  public Throwable getException() {
+    return throwable;
+  }
+
+  /**
+   * Applies one of the functions, depending on whether this is a value or an exception.
+   */
+  public <R> R fold(Function<? super T, ? extends R> onValue, Function<Throwable, ? extends R> onError) {
+    return throwable == null ? onValue.apply(value) : onError.apply(throwable);
+  }
+
+  @Override
+  public String toString() {
+    return throwable == null ? "Result(value=" + value + ")" : "Result(exception=" + throwable + ")";
+  }
+
+  <U> Result<U> mapValue(Function<? super T, ? extends U> transform) {
+    if (throwable == null) {
+      try {
+        return Result.value(transform.apply(value));
+      } catch (Exception e) {
+        return Result.exception(e);
+      }
+    }
+    return cast();
+  }
+
+  <U> Result<U> mapException(Function<Throwable, ? extends U> transform) {
+    if (throwable != null) {
+      try {
+        return Result.value(transform.apply(throwable));
+      } catch (Exception e) {
+        return Result.exception(e);
+      }
+    }
+    return cast();
+  }
+
+  /**
+   * Reinterprets this result as a result of another type. Only use it when there is no value, or when
+   * the value is known to be a {@code U}, such as a value that has been passed through an untyped stage.
+   */
+  @SuppressWarnings("unchecked")
+  <U> Result<U> cast() {
+    return (Result<U>) this;
+  }
+
+  <U> Result<U> map(Function<Result<T>, Result<U>> transform) {
+    try {
+      return transform.apply(this);
+    } catch (Throwable e) {
+      return Result.exception(e);
+    }
+  }
+}
@@ -1,61 +1,260 @@
 package se.krka.futures;
 
-import java.util.Queue;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.CountDownLatch;
+import com.spotify.futures.Function3;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
-public class SimpleFuture<T> {
-  private final AtomicReference<Result<T>> ref = new AtomicReference<>(null);
-  private final Queue<Consumer<Result<T>>> callbacks = new LinkedBlockingQueue<>();
+public class SimpleFuture<T> extends AbstractFuture<T> {
+  private static final SimpleFuture<?> VOID = new Constant<>(Result.NULL);
 
   public SimpleFuture() {
+    if (PendingFutures.enabled) {
+      PendingFutures.register(this, this);
+    }
+  }
+
+  private SimpleFuture(Result<T> result) {
+    super(result);
   }
 
+  /**
+   * Cancels this future. If every stage derived from the future this one was derived from has now been cancelled,
+   * that future is cancelled too, and so on upstream, so the producer can stop work that nobody is waiting for.
+   * A future that still has other consumers, such as a combinator or a primitive future created with
+   * {@link #mapToInt(ToIntFunction)}, is not cancelled. Callers of join do not count as consumers.
+   * The exception is created according to {@link ExceptionMode#getDefault()}.
+   */
   public void cancel() {
-    completeExceptionally(new CancellationException());
+    cancelUpstream(ExceptionMode.getDefault());
   }
 
-  public boolean isDone() {
-    return ref.get() != null;
+  /**
+   * Like {@link #cancel()}, with the given mode for creating the {@link java.util.concurrent.CancellationException}.
+   */
+  public void cancel(ExceptionMode mode) {
+    cancelUpstream(mode);
   }
 
+  /**
+   * Runs the action if this future is cancelled, either directly or because all its dependents were cancelled.
+   * This lets a producer abort the work behind the future.
+   */
+  public void onCancel(Runnable action) {
+    addCallback(new OnCancel<>(action));
+  }
+
+  /**
+   * Waits for the future to complete. Returns immediately without allocating if the future is already complete.
+   */
   public T join() throws InterruptedException, ExecutionException {
-    CountDownLatch latch = new CountDownLatch(1);
-    addCallback(ignore -> latch.countDown());
-    latch.await();
-    final Result<T> result = ref.get();
+    final Result<T> result = resultNow();
+    if (result != null) {
+      return report(result);
+    }
+    return report(await(true, false, 0L));
+  }
+
+  public T join(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    final Result<T> result = resultNow();
+    if (result != null) {
+      return report(result);
+    }
+    final Result<T> done = await(true, true, unit.toNanos(timeout));
+    if (done == null) {
+      throw new TimeoutException();
+    }
+    return report(done);
+  }
+
+  /**
+   * Like {@link #join()} but keeps waiting if the thread is interrupted.
+   * The interrupt status is restored before returning.
+   */
+  public T joinUninterruptibly() throws ExecutionException {
+    final Result<T> result = resultNow();
+    if (result != null) {
+      return report(result);
+    }
+    try {
+      return report(await(false, false, 0L));
+    } catch (InterruptedException e) {
+      throw new IllegalStateException("Unreachable code", e);
+    }
+  }
+
+  /**
+   * Like {@link #join()} but throws the exception the future failed with as-is, without wrapping it.
+   * Only checked exceptions are wrapped, once, in a {@link CompletionException}.
+   */
+  public T joinUnwrapped() throws InterruptedException {
+    Result<T> result = resultNow();
+    if (result == null) {
+      result = await(true, false, 0L);
+    }
+    if (result.throwable == null) {
+      return result.value;
+    }
+    final Throwable throwable = ExceptionMode.unshared(result.throwable);
+    if (throwable instanceof RuntimeException) {
+      throw (RuntimeException) throwable;
+    } else if (throwable instanceof Error) {
+      throw (Error) throwable;
+    } else {
+      throw new CompletionException(throwable);
+    }
+  }
+
+  private static <T> T report(Result<T> result) throws ExecutionException {
     if (result.throwable != null) {
-      throw new ExecutionException(result.throwable);
+      throw new ExecutionException(ExceptionMode.unshared(result.throwable));
     } else {
       return result.value;
     }
   }
 
+  /**
+   * Returns a new completed future. The result is shared for null and booleans, but the future is not,
+   * so it can still be extruded. Methods that return {@code SimpleFuture<Void>}, such as request handlers,
+   * should use {@link #completedVoid()} instead of {@code completed(null)}, which allocates nothing.
+   */
   public static <T> SimpleFuture<T> completed(T value) {
-    final SimpleFuture<T> future = new SimpleFuture<>();
-    future.complete(value);
-    return future;
+    return new SimpleFuture<>(Result.value(value));
+  }
+
+  /**
+   * Returns a shared completed future for {@code Void} methods. The future is immutable: it can not be extruded,
+   * and completing or cancelling it has no effect.
+   */
+  public static SimpleFuture<Void> completedVoid() {
+    return cast(VOID);
   }
 
   public static <T> SimpleFuture<T> exceptionallyCompleted(Throwable t) {
-    final SimpleFuture<T> future = new SimpleFuture<>();
-    future.completeExceptionally(t);
+    return new SimpleFuture<>(Result.exception(t));
+  }
+
+  /**
+   * Returns a future with the values of all the futures, in the same order.
+   * Fails as soon as any of the futures fails.
+   */
+  public static <T> SimpleFuture<List<T>> allAsList(List<? extends SimpleFuture<? extends T>> futures) {
+    return collect(futures, null, Combiner::asList);
+  }
+
+  /**
+   * Returns a future with the values of all the futures, in the same order.
+   * Failed futures are replaced by the value from {@code defaultValueMapper}.
+   */
+  public static <T> SimpleFuture<List<T>> successfulAsList(
+          List<? extends SimpleFuture<? extends T>> futures, Function<Throwable, ? extends T> defaultValueMapper) {
+    return collect(futures, defaultValueMapper, Combiner::asList);
+  }
+
+  public static <A, B, R> SimpleFuture<R> combine(
+          SimpleFuture<A> a, SimpleFuture<B> b, BiFunction<? super A, ? super B, ? extends R> function) {
+    return collect(List.of(a, b), null, values -> function.apply(cast(values[0]), cast(values[1])));
+  }
+
+  public static <A, B, C, R> SimpleFuture<R> combine(
+          SimpleFuture<A> a, SimpleFuture<B> b, SimpleFuture<C> c, Function3<? super A, ? super B, ? super C, ? extends R> function) {
+    return collect(List.of(a, b, c), null, values -> function.apply(cast(values[0]), cast(values[1]), cast(values[2])));
+  }
+
+  private static <R> SimpleFuture<R> collect(
+          List<? extends SimpleFuture<?>> futures, Function<Throwable, ?> defaultValueMapper, Function<Object[], ? extends R> finisher) {
+    final SimpleFuture<R> future = new SimpleFuture<>();
+    final Combiner<R> combiner = new Combiner<R>(futures.size(), finisher) {
+      @Override
+      void succeed(R value) {
+        future.complete(value);
+      }
+
+      @Override
+      void fail(Throwable t) {
+        future.completeExceptionally(t);
+      }
+    };
+    int index = 0;
+    for (SimpleFuture<?> input : futures) {
+      if (FutureTracer.current != null) {
+        FutureTracer.onEdge(future, input);
+      }
+      final SimpleFuture<Object> untyped = cast(input);
+      untyped.addCallback(new Collect<>(combiner, index++, defaultValueMapper));
+    }
+    combiner.completeIfEmpty();
     return future;
   }
 
   public void complete(T value) {
-    complete(Result.value(value));
+    completeWith(Result.value(value));
   }
 
   public void completeExceptionally(Throwable t) {
-    complete(Result.exception(t));
+    completeWith(Result.exception(t));
+  }
+
+  /**
+   * Completes this future with a {@link TimeoutException} if it is not completed within the given time.
+   * The timeout completion, and therefore any dependent stages, run on the given executor instead of the timer thread.
+   *
+   * @return this future
+   */
+  public SimpleFuture<T> orTimeout(Duration timeout, Executor executor) {
+    return orTimeout(timeout, executor, HashedWheelTimer.defaultTimer());
+  }
+
+  public SimpleFuture<T> orTimeout(Duration timeout, Executor executor, HashedWheelTimer timer) {
+    return orTimeout(timeout, executor, timer, ExceptionMode.getDefault());
+  }
+
+  /**
+   * Like {@link #orTimeout(Duration, Executor, HashedWheelTimer)}, with the given mode for creating the
+   * {@link TimeoutException}. The exception is only created if the timeout fires.
+   */
+  public SimpleFuture<T> orTimeout(Duration timeout, Executor executor, HashedWheelTimer timer, ExceptionMode mode) {
+    return onTimeout(() -> Result.exception(mode.newTimeout()), timeout, executor, timer);
+  }
+
+  /**
+   * Completes this future with the given value if it is not completed within the given time.
+   * The timeout completion runs on the given executor instead of the timer thread.
+   *
+   * @return this future
+   */
+  public SimpleFuture<T> completeOnTimeout(T value, Duration timeout, Executor executor) {
+    return completeOnTimeout(value, timeout, executor, HashedWheelTimer.defaultTimer());
+  }
+
+  public SimpleFuture<T> completeOnTimeout(T value, Duration timeout, Executor executor, HashedWheelTimer timer) {
+    final Result<T> result = Result.value(value);
+    return onTimeout(() -> result, timeout, executor, timer);
+  }
+
+  private SimpleFuture<T> onTimeout(
+          Supplier<Result<T>> result, Duration timeout, Executor executor, HashedWheelTimer timer) {
+    if (!isDone()) {
+      final HashedWheelTimer.Timeout handle =
+              timer.newTimeout(() -> executor.execute(() -> completeWith(result.get())), timeout);
+      // Remove the timeout from the timer as soon as the future completes
+      addCallback(new CancelTimeout<>(handle));
+    }
+    return this;
   }
 
   public void extrude(T value) {
@@ -67,13 +266,14 @@ public class SimpleFuture<T> {
   }
 
   private void extrude(Result<T> newValue) {
-    complete(newValue);
-    if (ref.get() != newValue) {
-      ref.set(newValue);
-    }
+    overwrite(newValue);
   }
 
   public <U> SimpleFuture<U> thenApply(Function<T, U> transform) {
+    final Result<T> current = resultNow();
+    if (current != null) {
+      return new SimpleFuture<>(current.mapValue(transform));
+    }
     return map(result -> result.mapValue(transform));
   }
 
@@ -85,28 +285,130 @@ public class SimpleFuture<T> {
     return mapAsync(result -> result.mapValue(transform));
   }
 
+  /**
+   * Like {@link #thenApplyAsync(Function, Executor)}, and reports the queue wait and execution time of the stage
+   * under the given name while {@link StageInstrumentation} is enabled.
+   */
+  public <U> SimpleFuture<U> thenApplyAsync(String stage, Function<T, U> transform, Executor executor) {
+    return thenApplyAsync(transform, StageInstrumentation.instrument(stage, executor));
+  }
+
+  /**
+   * Replaces a failure with a value. The function gets the exception exactly as the failed stage was completed with it,
+   * since stages pass failures on unchanged instead of wrapping them.
+   */
+  public SimpleFuture<T> exceptionally(Function<Throwable, ? extends T> transform) {
+    final Result<T> current = resultNow();
+    if (current != null) {
+      return new SimpleFuture<>(current.mapException(transform));
+    }
+    return map(result -> result.mapException(transform));
+  }
+
+  public IntFuture mapToInt(ToIntFunction<T> transform) {
+    final IntFuture future = new IntFuture();
+    addCallback(result -> {
+      if (result.throwable != null) {
+        future.completeExceptionally(result.throwable);
+        return;
+      }
+      final int value;
+      try {
+        value = transform.applyAsInt(result.value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(value);
+    });
+    return future;
+  }
+
+  public LongFuture mapToLong(ToLongFunction<T> transform) {
+    final LongFuture future = new LongFuture();
+    addCallback(result -> {
+      if (result.throwable != null) {
+        future.completeExceptionally(result.throwable);
+        return;
+      }
+      final long value;
+      try {
+        value = transform.applyAsLong(result.value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(value);
+    });
+    return future;
+  }
+
+  public DoubleFuture mapToDouble(ToDoubleFunction<T> transform) {
+    final DoubleFuture future = new DoubleFuture();
+    addCallback(result -> {
+      if (result.throwable != null) {
+        future.completeExceptionally(result.throwable);
+        return;
+      }
+      final double value;
+      try {
+        value = transform.applyAsDouble(result.value);
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      future.complete(value);
+    });
+    return future;
+  }
+
+  /**
+   * Starts a fused chain of synchronous transforms on this future.
+   * All transforms added to the chain run in a single callback, and no intermediate futures or results are created.
+   * Use it when the intermediate stages would never be observed anyway.
+   */
+  public Fused<T> fuse() {
+    return new Fused<>(this);
+  }
+
   public <U> SimpleFuture<U> thenCompose(Function<T, SimpleFuture<U>> transform) {
-    final SimpleFuture<U> future = new SimpleFuture<>();
-    addCallback(res -> {
+    return flatmap(res -> {
       final Result<SimpleFuture<U>> composed = res.mapValue(transform);
-      if (composed.value != null) {
-        composed.value.addCallback(future::complete);
-      } else {
-        future.completeExceptionally(composed.throwable);
+      if (composed.throwable != null) {
+        return SimpleFuture.exceptionallyCompleted(composed.throwable);
       }
+      return composed.value;
     });
-    return future;
   }
 
-  private <U> SimpleFuture<U> map(Function<Result<T>, Result<U>> transform) {
-    final SimpleFuture<U> newFuture = new SimpleFuture<>();
-    addCallback(result -> newFuture.complete(result.map(transform)));
+  /**
+   * Returns a view of this future that is bound to the executor.
+   * Synchronous stages on the view always run on the bound executor, and async stages move the binding
+   * to their own executor. A stage is only dispatched to the executor if the thread completing its input
+   * is not already running on that executor, so staying on one executor costs no extra queue hops.
+   *
+   * Primitive futures created with {@code mapToInt} and friends are not bound.
+   */
+  public SimpleFuture<T> withAffinity(Executor executor) {
+    final Bound<T> bound = new Bound<>(AffinityExecutor.of(executor));
+    bound.dependOn(this);
+    addCallback(new Relay<>(bound));
+    return bound;
+  }
+
+  <U> SimpleFuture<U> map(Function<Result<T>, Result<U>> transform) {
+    final Result<T> current = resultNow();
+    if (current != null) {
+      return new SimpleFuture<>(current.map(transform));
+    }
+    final SimpleFuture<U> newFuture = newStage(this);
+    addCallback(new Apply<>(newFuture, transform));
     return newFuture;
   }
 
   private <U> SimpleFuture<U> mapAsync(Function<Result<T>, Result<U>> transform, Executor executor) {
-    final SimpleFuture<U> newFuture = new SimpleFuture<>();
-    addCallback(result -> executor.execute(() -> newFuture.complete(result.map(transform))));
+    final SimpleFuture<U> newFuture = newStage(this);
+    addCallback(new AsyncApply<>(newFuture, transform, executor));
     return newFuture;
   }
 
@@ -114,118 +416,393 @@ public class SimpleFuture<T> {
     return mapAsync(transform, ForkJoinPool.commonPool());
   }
 
-  private <U> SimpleFuture<U> flatmap(Function<Result<T>, SimpleFuture<U>> transform) {
-    final SimpleFuture<U> newFuture = new SimpleFuture<>();
-    addCallback(result1 -> {
-      final SimpleFuture<U> composedFuture = transform.apply(result1);
+  <U> SimpleFuture<U> flatmap(Function<Result<T>, SimpleFuture<U>> transform) {
+    final Result<T> current = resultNow();
+    if (current != null) {
+      final SimpleFuture<U> composedFuture;
+      try {
+        composedFuture = transform.apply(current);
+      } catch (Throwable e) {
+        return exceptionallyCompleted(e);
+      }
       if (composedFuture == null) {
-        newFuture.completeExceptionally(new NullPointerException());
-      } else {
-        composedFuture.addCallback(newFuture::complete);
+        return exceptionallyCompleted(new NullPointerException());
       }
-    });
+      final Result<U> composedResult = composedFuture.resultNow();
+      if (composedResult != null) {
+        return new SimpleFuture<>(composedResult);
+      }
+      final SimpleFuture<U> newFuture = newStage(composedFuture);
+      composedFuture.addCallback(new Relay<>(newFuture));
+      return newFuture;
+    }
+    final SimpleFuture<U> newFuture = newStage(this);
+    addCallback(new Compose<>(newFuture, transform));
     return newFuture;
   }
 
   private <U> SimpleFuture<U> flatmapAsync(Function<Result<T>, SimpleFuture<U>> transform, Executor executor) {
-    final SimpleFuture<U> newFuture = new SimpleFuture<>();
+    final SimpleFuture<U> newFuture = newStage(this);
     addCallback(result1 -> {
       final SimpleFuture<U> composedFuture = transform.apply(result1);
       if (composedFuture == null) {
         newFuture.completeExceptionally(new NullPointerException());
       } else {
-        composedFuture.addCallback(newFuture::complete, executor);
+        newFuture.dependOn(composedFuture);
+        composedFuture.addCallback(newFuture::completeWith, executor);
       }
     }, executor);
     return newFuture;
   }
 
+  /**
+   * Creates a new stage that depends on the given future.
+   */
+  private static <U> SimpleFuture<U> newStage(AbstractFuture<?> upstream) {
+    final SimpleFuture<U> future = new SimpleFuture<>();
+    future.dependOn(upstream);
+    return future;
+  }
+
   private void addCallback(Consumer<Result<T>> callback) {
-    final Result<T> result = ref.get();
-    if (result != null) {
-      callback(callback, result);
-    } else {
-      callbacks.add(callback);
-      if (ref.get() != null) {
-        drainCallbacks();
+    addCallback(new ConsumerCallback<>(callback));
+  }
+
+  private void addCallback(Consumer<Result<T>> callback, Executor executor) {
+    addCallback(result -> executor.execute(() -> {
+      final boolean marked = BlockingDetector.enterStage();
+      try {
+        callback.accept(result);
+      } finally {
+        BlockingDetector.exitStage(marked);
       }
+    }));
+  }
+
+  /**
+   * A future that runs all its dependent stages on an executor, see {@link #withAffinity(Executor)}.
+   */
+  private static final class Bound<T> extends SimpleFuture<T> {
+    private final AffinityExecutor executor;
+
+    private Bound(AffinityExecutor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public <U> SimpleFuture<U> thenApply(Function<T, U> transform) {
+      return map(result -> result.mapValue(transform));
+    }
+
+    @Override
+    public <U> SimpleFuture<U> thenApplyAsync(Function<T, U> transform, Executor executor) {
+      final AffinityExecutor target = AffinityExecutor.of(executor);
+      return mapOn(result -> result.mapValue(transform), target, target);
+    }
+
+    @Override
+    public <U> SimpleFuture<U> thenApplyAsync(String stage, Function<T, U> transform, Executor executor) {
+      // Only this stage is timed, the stages after it are bound to the plain executor
+      final AffinityExecutor target = AffinityExecutor.of(executor);
+      return mapOn(result -> result.mapValue(transform), target, StageInstrumentation.instrument(stage, target));
+    }
+
+    @Override
+    public <U> SimpleFuture<U> thenApplyAsync(Function<T, U> transform) {
+      return thenApplyAsync(transform, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    <U> SimpleFuture<U> map(Function<Result<T>, Result<U>> transform) {
+      return mapOn(transform, executor, executor);
+    }
+
+    @Override
+    <U> SimpleFuture<U> flatmap(Function<Result<T>, SimpleFuture<U>> transform) {
+      final Bound<U> future = new Bound<>(executor);
+      future.dependOn(this);
+      addCallback(new Dispatch<>(new Compose<>(future, transform), executor));
+      return future;
+    }
+
+    private <U> SimpleFuture<U> mapOn(
+            Function<Result<T>, Result<U>> transform, AffinityExecutor executor, Executor dispatcher) {
+      final Bound<U> future = new Bound<>(executor);
+      future.dependOn(this);
+      addCallback(new AsyncApply<>(future, transform, dispatcher));
+      return future;
     }
   }
 
-  private void addCallback(Consumer<Result<T>> callback, Executor executor) {
-    addCallback(result -> executor.execute(() -> callback.accept(result)));
+  /**
+   * A shared completed future, which rejects extrude since every user of it would see the new result.
+   */
+  private static final class Constant<T> extends SimpleFuture<T> {
+    private Constant(Result<T> result) {
+      super(result);
+    }
+
+    @Override
+    public void extrude(T value) {
+      throw new UnsupportedOperationException("Can not extrude a shared constant future");
+    }
+
+    @Override
+    public void extrudeExceptionally(Throwable t) {
+      throw new UnsupportedOperationException("Can not extrude a shared constant future");
+    }
   }
 
-  private void callback(Consumer<Result<T>> callback, Result<T> result) {
-    try {
-      callback.accept(result);
-    } catch (Throwable e) {
-      callback.accept(Result.exception(e));
+  private static class ConsumerCallback<T> extends Callback<T> {
+    private final Consumer<Result<T>> consumer;
+
+    private ConsumerCallback(Consumer<Result<T>> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      try {
+        consumer.accept(result);
+      } catch (Throwable e) {
+        consumer.accept(Result.exception(e));
+      }
     }
   }
 
-  private void drainCallbacks() {
-    final Result<T> result = ref.get();
-    while (true) {
-      final Consumer<Result<T>> callback = callbacks.poll();
-      if (callback == null) {
-        break;
+  /**
+   * Callbacks that complete another future drop their references once they have fired,
+   * so nothing captured by the transform outlives the stage. A stage that has already been
+   * cancelled skips its transform.
+   */
+  private static class Apply<T, U> extends Callback<T> {
+    private SimpleFuture<U> future;
+    private Function<Result<T>, Result<U>> transform;
+
+    private Apply(SimpleFuture<U> future, Function<Result<T>, Result<U>> transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      final SimpleFuture<U> target = future;
+      final Function<Result<T>, Result<U>> function = transform;
+      future = null;
+      transform = null;
+      if (!target.isDone()) {
+        target.completeWith(result.map(function));
       }
-      callback.accept(result);
+    }
+
+    @Override
+    boolean isLive() {
+      final SimpleFuture<U> target = future;
+      return target != null && !target.isDone();
     }
   }
 
-  private void complete(Result<T> result) {
-    if (ref.compareAndSet(null, result)) {
-      drainCallbacks();
+  private static class AsyncApply<T, U> extends Callback<T> implements Runnable {
+    private final Executor executor;
+    private SimpleFuture<U> future;
+    private Function<Result<T>, Result<U>> transform;
+    private Result<T> input;
+
+    private AsyncApply(SimpleFuture<U> future, Function<Result<T>, Result<U>> transform, Executor executor) {
+      this.future = future;
+      this.transform = transform;
+      this.executor = executor;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      if (future.isDone()) {
+        future = null;
+        transform = null;
+        return;
+      }
+      input = result;
+      try {
+        executor.execute(this);
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }
+
+    @Override
+    public void run() {
+      final SimpleFuture<U> target = future;
+      final Function<Result<T>, Result<U>> function = transform;
+      final Result<T> result = input;
+      future = null;
+      transform = null;
+      input = null;
+      if (target.isDone()) {
+        return;
+      }
+      final boolean marked = BlockingDetector.enterStage();
+      try {
+        target.completeWith(result.map(function));
+      } finally {
+        BlockingDetector.exitStage(marked);
+      }
+    }
+
+    @Override
+    boolean isLive() {
+      final SimpleFuture<U> target = future;
+      return target != null && !target.isDone();
     }
   }
 
-  private static class Result<T> {
-    private final T value;
-    private final Throwable throwable;
+  private static class Compose<T, U> extends Callback<T> {
+    private SimpleFuture<U> future;
+    private Function<Result<T>, SimpleFuture<U>> transform;
+
+    private Compose(SimpleFuture<U> future, Function<Result<T>, SimpleFuture<U>> transform) {
+      this.future = future;
+      this.transform = transform;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      final SimpleFuture<U> future = this.future;
+      final Function<Result<T>, SimpleFuture<U>> function = transform;
+      this.future = null;
+      transform = null;
+      if (future.isDone()) {
+        return;
+      }
+      final SimpleFuture<U> composedFuture;
+      try {
+        composedFuture = function.apply(result);
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      if (composedFuture == null) {
+        future.completeExceptionally(new NullPointerException());
+      } else {
+        future.dependOn(composedFuture);
+        composedFuture.addCallback(new Relay<>(future));
+      }
+    }
 
-    private Result(T value, Throwable throwable) {
-      this.value = value;
-      this.throwable = throwable;
+    @Override
+    boolean isLive() {
+      final SimpleFuture<U> target = future;
+      return target != null && !target.isDone();
     }
+  }
 
-    public static <T> Result<T> value(T value) {
-      return new Result<>(value, null);
+  /**
+   * Runs another callback on an executor.
+   */
+  private static class Dispatch<T> extends Callback<T> implements Runnable {
+    private final Executor executor;
+    private Callback<T> callback;
+    private Result<T> input;
+
+    private Dispatch(Callback<T> callback, Executor executor) {
+      this.callback = callback;
+      this.executor = executor;
     }
 
-    public static <T> Result<T> exception(Throwable t) {
-      return new Result<>(null, t);
+    @Override
+    void accept(Result<T> result) {
+      input = result;
+      executor.execute(this);
     }
 
-    public <U> Result<U> mapValue(Function<T, U> transform) {
-      if (throwable == null) {
-        try {
-          return Result.value(transform.apply(value));
-        } catch (Exception e) {
-          return Result.exception(e);
-        }
+    @Override
+    public void run() {
+      final Callback<T> target = callback;
+      final Result<T> result = input;
+      callback = null;
+      input = null;
+      final boolean marked = BlockingDetector.enterStage();
+      try {
+        target.accept(result);
+      } finally {
+        BlockingDetector.exitStage(marked);
       }
-      return (Result<U>) this;
     }
 
-    public <U> Result<U> mapException(Function<Throwable, U> transform) {
-      if (throwable != null) {
+    @Override
+    boolean isLive() {
+      final Callback<T> target = callback;
+      return target != null && target.isLive();
+    }
+  }
+
+  private static class Relay<T> extends Callback<T> {
+    private final SimpleFuture<T> future;
+
+    private Relay(SimpleFuture<T> future) {
+      this.future = future;
+    }
+
+    @Override
+    void accept(Result<T> result) {
+      future.completeWith(result);
+    }
+
+    @Override
+    boolean isLive() {
+      return !future.isDone();
+    }
+  }
+
+  /**
+   * A chain of synchronous transforms that is registered as a single stage by {@link #toFuture()}.
+   * The chain is mutable and {@link #thenApply(Function)} returns the same instance, so adding a stage only costs
+   * a slot in the list of functions.
+   */
+  public static final class Fused<T> {
+    private final SimpleFuture<?> source;
+    private final List<Function<Object, Object>> functions = new ArrayList<>();
+    private boolean registered;
+
+    private Fused(SimpleFuture<?> source) {
+      this.source = source;
+    }
+
+    public <U> Fused<U> thenApply(Function<T, U> transform) {
+      if (registered) {
+        throw new IllegalStateException("Fused chain has already been turned into a future");
+      }
+      functions.add(cast(transform));
+      return cast(this);
+    }
+
+    public <U> Fused<U> map(Function<T, U> transform) {
+      return thenApply(transform);
+    }
+
+    public SimpleFuture<T> toFuture() {
+      if (registered) {
+        throw new IllegalStateException("Fused chain has already been turned into a future");
+      }
+      registered = true;
+      // The list can not change any more, so the callback can use it as is
+      final List<Function<Object, Object>> transforms = functions;
+      final SimpleFuture<Object> untyped = cast(source);
+      return untyped.map(result -> applyAll(transforms, result).cast());
+    }
+
+    private static Result<Object> applyAll(List<Function<Object, Object>> transforms, Result<Object> result) {
+      if (result.throwable != null) {
+        return result;
+      }
+      Object value = result.value;
+      for (int i = 0, size = transforms.size(); i < size; i++) {
         try {
-          return Result.value(transform.apply(throwable));
+          value = transforms.get(i).apply(value);
         } catch (Exception e) {
           return Result.exception(e);
         }
       }
-      return (Result<U>) this;
-    }
-
-    public <U> Result<U> map(Function<Result<T>, Result<U>> transform) {
-      try {
-        return transform.apply(this);
-      } catch (Throwable e) {
-        return Result.exception(e);
-      }
+      return Result.value(value);
     }
   }
 }
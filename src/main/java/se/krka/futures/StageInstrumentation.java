@@ -0,0 +1,66 @@
+package se.krka.futures;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Optional timing of named async stages, such as {@link PFuture#mapAsync(String, java.util.function.Function, Executor)}.
+ * For every stage it records when the stage was enqueued, started and finished, and which thread ran it,
+ * so a slow stage can be told apart from a stage that spent its time waiting in the executor queue.
+ *
+ * Instrumentation is off until a sink is installed. While it is off, the named stages are exactly the same as the
+ * unnamed ones and nothing extra is allocated.
+ */
+public final class StageInstrumentation {
+  private static volatile MetricsSink sink;
+
+  private StageInstrumentation() {
+  }
+
+  /**
+   * Installs the sink for all stages created from now on, or turns instrumentation off if the sink is null.
+   */
+  public static void setSink(MetricsSink sink) {
+    StageInstrumentation.sink = sink;
+  }
+
+  public static MetricsSink getSink() {
+    return sink;
+  }
+
+  /**
+   * Returns an executor that reports the timing of every task to the current sink under the given name,
+   * or the executor itself if instrumentation is off.
+   */
+  public static Executor instrument(String stage, Executor executor) {
+    final MetricsSink current = sink;
+    if (current == null) {
+      return executor;
+    }
+    return new TimedExecutor(stage, executor, current);
+  }
+
+  private static final class TimedExecutor implements Executor {
+    private final String stage;
+    private final Executor delegate;
+    private final MetricsSink sink;
+
+    private TimedExecutor(String stage, Executor delegate, MetricsSink sink) {
+      this.stage = stage;
+      this.delegate = delegate;
+      this.sink = sink;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      final long enqueued = System.nanoTime();
+      delegate.execute(() -> {
+        final long started = System.nanoTime();
+        try {
+          command.run();
+        } finally {
+          sink.onStage(stage, enqueued, started, System.nanoTime(), Thread.currentThread());
+        }
+      });
+    }
+  }
+}
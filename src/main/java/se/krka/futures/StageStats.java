@@ -0,0 +1,101 @@
+package se.krka.futures;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsSink} that keeps, for every stage, the number of runs, histograms of the queue wait and the
+ * execution time, and how many runs each thread did. Counters and histograms are striped by thread,
+ * so executor threads recording at the same time do not contend on the same memory.
+ */
+public final class StageStats implements MetricsSink {
+  private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+  private final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<>();
+
+  @Override
+  public void onStage(String stage, long enqueuedNanos, long startedNanos, long finishedNanos, Thread thread) {
+    final Stage stats = stages.computeIfAbsent(stage, name -> new Stage());
+    final int stripe = (int) thread.getId() & (STRIPES - 1);
+    stats.count.increment();
+    stats.queueWait[stripe].record(startedNanos - enqueuedNanos);
+    stats.execution[stripe].record(finishedNanos - startedNanos);
+    stats.threads.computeIfAbsent(thread.getName(), name -> new LongAdder()).increment();
+  }
+
+  /**
+   * @return the stats of the stage, or null if it has not run since it was instrumented
+   */
+  public Stage get(String stage) {
+    return stages.get(stage);
+  }
+
+  public Map<String, Stage> all() {
+    return new TreeMap<>(stages);
+  }
+
+  public static final class Stage {
+    private final LongAdder count = new LongAdder();
+    private final LatencyHistogram[] queueWait = newStripes();
+    private final LatencyHistogram[] execution = newStripes();
+    private final ConcurrentMap<String, LongAdder> threads = new ConcurrentHashMap<>();
+
+    private Stage() {
+    }
+
+    public long count() {
+      return count.sum();
+    }
+
+    /**
+     * @return a snapshot of the time between enqueueing the stage and starting to run it, in nanoseconds
+     */
+    public LatencyHistogram queueWait() {
+      return merge(queueWait);
+    }
+
+    /**
+     * @return a snapshot of the time spent running the stage, in nanoseconds
+     */
+    public LatencyHistogram execution() {
+      return merge(execution);
+    }
+
+    /**
+     * @return the number of runs per thread name
+     */
+    public Map<String, Long> threads() {
+      final Map<String, Long> result = new TreeMap<>();
+      threads.forEach((name, runs) -> result.put(name, runs.sum()));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      final LatencyHistogram queue = queueWait();
+      final LatencyHistogram run = execution();
+      return String.format("count=%d, queue p50=%dus p99=%dus, execution p50=%dus p99=%dus, threads=%s",
+              count(), queue.valueAtPercentile(50) / 1000, queue.valueAtPercentile(99) / 1000,
+              run.valueAtPercentile(50) / 1000, run.valueAtPercentile(99) / 1000, threads());
+    }
+
+    private static LatencyHistogram[] newStripes() {
+      final LatencyHistogram[] stripes = new LatencyHistogram[STRIPES];
+      for (int i = 0; i < STRIPES; i++) {
+        stripes[i] = new LatencyHistogram();
+      }
+      return stripes;
+    }
+
+    private static LatencyHistogram merge(LatencyHistogram[] stripes) {
+      final LatencyHistogram result = new LatencyHistogram();
+      for (LatencyHistogram stripe : stripes) {
+        result.add(stripe);
+      }
+      return result;
+    }
+  }
+}
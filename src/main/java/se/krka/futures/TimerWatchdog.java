@@ -0,0 +1,215 @@
+package se.krka.futures;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Watches the health of the threads that fire timeouts.
+ *
+ * Timeouts are only as punctual as the timer thread that fires them. A single callback that runs on the timer thread,
+ * such as a blocking stage after {@code orTimeout} (see {@code OnTimeoutTest}), delays every other timeout
+ * in the JVM, and nothing in the futures themselves notices.
+ *
+ * The watchdog keeps a probe task scheduled on each watched timer, and records how late each probe fires
+ * in a {@link LatencyHistogram}. The lag is also reported to the {@link StageInstrumentation} sink, if one is installed,
+ * as a stage named {@code timer:<name>} whose queue wait is the lag. A watchdog thread checks the probes,
+ * and if a probe is overdue by more than the stall threshold, the timer thread is busy with something else:
+ * the stack trace of the timer thread shows what, and the stall is counted and reported to the stall listener.
+ */
+public final class TimerWatchdog implements AutoCloseable {
+  public static final String JDK_DELAY_SCHEDULER = "CompletableFutureDelayScheduler";
+
+  private final long probeNanos;
+  private final long stallNanos;
+  private final ConcurrentMap<String, Probe> probes = new ConcurrentHashMap<>();
+  private final Thread thread;
+  private volatile Consumer<String> stallListener = System.err::println;
+  private volatile boolean closed;
+
+  /**
+   * @param probeInterval how often to probe each timer
+   * @param stallThreshold how late a probe must be before the timer counts as stalled
+   */
+  public TimerWatchdog(Duration probeInterval, Duration stallThreshold) {
+    if (probeInterval.isNegative() || probeInterval.isZero()) {
+      throw new IllegalArgumentException("probeInterval must be positive: " + probeInterval);
+    }
+    if (stallThreshold.isNegative() || stallThreshold.isZero()) {
+      throw new IllegalArgumentException("stallThreshold must be positive: " + stallThreshold);
+    }
+    this.probeNanos = probeInterval.toNanos();
+    this.stallNanos = stallThreshold.toNanos();
+    this.thread = new Thread(this::run, "TimerWatchdog");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Watches the JDK thread behind {@link CompletableFuture#orTimeout} and {@link CompletableFuture#delayedExecutor},
+   * under the name {@link #JDK_DELAY_SCHEDULER}.
+   */
+  public TimerWatchdog watchJdkDelayScheduler() {
+    return watch(JDK_DELAY_SCHEDULER, (task, nanos) ->
+            CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS, Runnable::run).execute(task));
+  }
+
+  public TimerWatchdog watch(String name, HashedWheelTimer timer) {
+    Objects.requireNonNull(timer);
+    return watch(name, (task, nanos) -> timer.newTimeout(task, Duration.ofNanos(nanos)));
+  }
+
+  private TimerWatchdog watch(String name, Scheduler scheduler) {
+    final Probe probe = new Probe(name, scheduler);
+    if (probes.putIfAbsent(name, probe) != null) {
+      throw new IllegalArgumentException("Already watching " + name);
+    }
+    probe.schedule();
+    return this;
+  }
+
+  /**
+   * Sets the listener for stall reports. Reports are printed to standard error by default.
+   */
+  public void setStallListener(Consumer<String> listener) {
+    stallListener = Objects.requireNonNull(listener);
+  }
+
+  /**
+   * @return how late the probes on the timer fired, in nanoseconds
+   */
+  public LatencyHistogram lag(String name) {
+    return probe(name).lag;
+  }
+
+  /**
+   * @return the number of times the timer was found stalled
+   */
+  public long stalls(String name) {
+    return probe(name).stalls.sum();
+  }
+
+  /**
+   * @return the stack trace of the timer thread at the latest stall, or null if it has not stalled
+   */
+  public StackTraceElement[] lastStallStack(String name) {
+    return probe(name).lastStallStack;
+  }
+
+  /**
+   * @return the number of stalls of each watched timer
+   */
+  public Map<String, Long> stallsByTimer() {
+    final Map<String, Long> result = new TreeMap<>();
+    probes.forEach((name, probe) -> result.put(name, probe.stalls.sum()));
+    return result;
+  }
+
+  private Probe probe(String name) {
+    final Probe probe = probes.get(name);
+    if (probe == null) {
+      throw new IllegalArgumentException("Not watching " + name);
+    }
+    return probe;
+  }
+
+  /**
+   * Stops the watchdog thread. Probes that are already scheduled fire once more, but are not rescheduled.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    thread.interrupt();
+  }
+
+  private void run() {
+    final long checkNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), Math.min(probeNanos, stallNanos) / 4);
+    while (!closed) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(checkNanos);
+      } catch (InterruptedException e) {
+        return;
+      }
+      for (Probe probe : probes.values()) {
+        probe.check(System.nanoTime());
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface Scheduler {
+    void schedule(Runnable task, long delayNanos);
+  }
+
+  private final class Probe implements Runnable {
+    private final String name;
+    private final Scheduler scheduler;
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final LongAdder stalls = new LongAdder();
+    private volatile long expectedNanos;
+    private volatile Thread timerThread;
+    private volatile StackTraceElement[] lastStallStack;
+
+    // Only accessed by the watchdog thread
+    private long reportedNanos;
+
+    private Probe(String name, Scheduler scheduler) {
+      this.name = name;
+      this.scheduler = scheduler;
+    }
+
+    private void schedule() {
+      expectedNanos = System.nanoTime() + probeNanos;
+      scheduler.schedule(this, probeNanos);
+    }
+
+    /**
+     * Runs on the timer thread.
+     */
+    @Override
+    public void run() {
+      final long now = System.nanoTime();
+      final long expected = expectedNanos;
+      final Thread current = Thread.currentThread();
+      timerThread = current;
+      lag.record(now - expected);
+      final MetricsSink sink = StageInstrumentation.getSink();
+      if (sink != null) {
+        sink.onStage("timer:" + name, expected, now, System.nanoTime(), current);
+      }
+      if (!closed) {
+        schedule();
+      }
+    }
+
+    private void check(long now) {
+      final long expected = expectedNanos;
+      if (now - expected <= stallNanos || reportedNanos == expected) {
+        return;
+      }
+      reportedNanos = expected;
+      final Thread stalled = timerThread;
+      final StackTraceElement[] stack = stalled == null ? new StackTraceElement[0] : stalled.getStackTrace();
+      lastStallStack = stack;
+      stalls.increment();
+
+      final StringBuilder sb = new StringBuilder();
+      sb.append("Timer ").append(name).append(" is stalled: a probe is ")
+              .append(TimeUnit.NANOSECONDS.toMillis(now - expected)).append(" ms late");
+      if (stalled != null) {
+        sb.append(", thread ").append(stalled.getName()).append(" is at");
+      }
+      for (StackTraceElement element : stack) {
+        sb.append("\n    at ").append(element);
+      }
+      stallListener.accept(sb.toString());
+    }
+  }
+}
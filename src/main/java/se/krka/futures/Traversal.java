@@ -0,0 +1,169 @@
+package se.krka.futures;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Runs an async function for each input with at most a fixed number of calls in flight,
+ * see {@link PFuture#traverse(Iterable, Function, int)}.
+ *
+ * There are no batches: every completed call starts the next input from its completion callback, so all the slots
+ * stay busy until the inputs run out. Starting calls is serialized by a work counter instead of a lock, so whichever
+ * thread completes a call starts the next one without blocking, and calls that complete immediately are started
+ * in a loop rather than by recursion.
+ *
+ * The first failure fails the result right away, and cancelling or failing the result cancels the calls in flight.
+ */
+final class Traversal<A, B> extends Callback<List<B>> {
+  private final Iterator<? extends A> inputs;
+  private final Function<? super A, PFuture<B>> function;
+  private final int maxInFlight;
+  private final boolean ordered;
+  private final PFuture<List<B>> result = new PFuture<>();
+
+  private final Object[] values;
+
+  /**
+   * The calls that have been started and not completed yet, by input index, so they can be cancelled.
+   */
+  private final AtomicReferenceArray<PFuture<?>> calls;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger completed = new AtomicInteger();
+  private final AtomicInteger work = new AtomicInteger();
+
+  // Only accessed by the thread that holds the work counter
+  private int started;
+
+  private Traversal(Collection<? extends A> inputs, Function<? super A, PFuture<B>> function,
+                    int maxInFlight, boolean ordered) {
+    this.inputs = inputs.iterator();
+    this.function = function;
+    this.maxInFlight = maxInFlight;
+    this.ordered = ordered;
+    this.values = new Object[inputs.size()];
+    this.calls = new AtomicReferenceArray<>(inputs.size());
+  }
+
+  static <A, B> PFuture<List<B>> start(
+          Iterable<? extends A> inputs, Function<? super A, PFuture<B>> function, int maxInFlight, boolean ordered) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+    }
+    final Traversal<A, B> traversal = new Traversal<>(toCollection(inputs), function, maxInFlight, ordered);
+    traversal.result.addCallback(traversal);
+    traversal.drain();
+    return traversal.result;
+  }
+
+  /**
+   * The results are collected in an array of the right size, so the inputs are copied if their size is not known.
+   */
+  private static <A> Collection<? extends A> toCollection(Iterable<? extends A> inputs) {
+    if (inputs instanceof Collection) {
+      return (Collection<? extends A>) inputs;
+    }
+    final List<A> list = new ArrayList<>();
+    inputs.forEach(list::add);
+    return list;
+  }
+
+  /**
+   * Starts calls until there are {@code maxInFlight} of them, and completes the result once all have completed.
+   * Only one thread at a time runs the loop. Other threads only bump the work counter, which makes that thread
+   * go around the loop once more.
+   */
+  private void drain() {
+    if (work.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      while (!result.isDone() && inFlight.get() < maxInFlight && inputs.hasNext()) {
+        startNext();
+      }
+      if (!result.isDone() && !inputs.hasNext() && inFlight.get() == 0) {
+        if (started != values.length) {
+          result.completeWith(Result.exception(new ConcurrentModificationException()));
+        } else {
+          result.completeWith(Result.value(Combiner.asList(values)));
+        }
+      }
+    } while (work.decrementAndGet() != 0);
+  }
+
+  private void startNext() {
+    final int index = started++;
+    if (index >= values.length) {
+      result.completeWith(Result.exception(new ConcurrentModificationException()));
+      return;
+    }
+    final PFuture<B> call;
+    try {
+      call = function.apply(inputs.next());
+    } catch (Throwable e) {
+      result.completeWith(Result.exception(e));
+      return;
+    }
+    if (call == null) {
+      result.completeWith(Result.exception(new NullPointerException()));
+      return;
+    }
+    inFlight.incrementAndGet();
+    calls.set(index, call);
+    call.addCallback(new Step(index));
+    if (result.isDone()) {
+      // The result failed or was cancelled while the call was being started
+      call.cancel();
+    }
+  }
+
+  /**
+   * Cancels the calls in flight if the result fails or is cancelled.
+   */
+  @Override
+  void accept(Result<List<B>> outcome) {
+    if (outcome.throwable == null) {
+      return;
+    }
+    for (int i = 0; i < calls.length(); i++) {
+      final PFuture<?> call = calls.get(i);
+      if (call != null) {
+        call.cancel();
+      }
+    }
+  }
+
+  /**
+   * Only cleans up after the result, so it does not keep the result from being cancelled.
+   */
+  @Override
+  boolean isLive() {
+    return false;
+  }
+
+  private final class Step extends Callback<B> {
+    private final int index;
+
+    private Step(int index) {
+      this.index = index;
+    }
+
+    @Override
+    void accept(Result<B> outcome) {
+      calls.set(index, null);
+      if (outcome.throwable != null) {
+        result.completeWith(outcome.cast());
+        return;
+      }
+      values[ordered ? index : completed.getAndIncrement()] = outcome.value;
+      inFlight.decrementAndGet();
+      drain();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AffinityTest {
+
+  private static final int ITERATIONS = 10000;
+
+  private final ExecutorService runner = Util.newExecutor("runner");
+  private final ExecutorService banana = Util.newExecutor("banana");
+  private final ExecutorService apple = Util.newExecutor("apple");
+
+  @After
+  public void tearDown() {
+    runner.shutdown();
+    banana.shutdown();
+    apple.shutdown();
+  }
+
+  @Test
+  public void testSimpleFutureAlwaysRunsOnBoundExecutor() throws Exception {
+    final Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+    final List<SimpleFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < ITERATIONS; i++) {
+      final SimpleFuture<Void> future = new SimpleFuture<>();
+      futures.add(future);
+      runner.execute(() -> SimpleFuture.completedVoid()
+              .withAffinity(banana)
+              .thenApply(v -> Util.currThread())
+              .thenApplyAsync(s -> s + " -> " + Util.currThread(), apple)
+              .thenApply(s -> s + " -> " + Util.currThread())
+              .thenApply(s -> {
+                counters.computeIfAbsent(s, key -> new AtomicInteger()).incrementAndGet();
+                future.complete(null);
+                return s;
+              }));
+    }
+    for (SimpleFuture<Void> future : futures) {
+      future.join(10, TimeUnit.SECONDS);
+    }
+    assertEquals(Map.of("banana -> apple -> apple", ITERATIONS), toMap(counters));
+  }
+
+  @Test
+  public void testPFutureAlwaysRunsOnBoundExecutor() throws Exception {
+    final Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+    final CountDownLatch latch = new CountDownLatch(ITERATIONS);
+    for (int i = 0; i < ITERATIONS; i++) {
+      runner.execute(() -> PFuture.completedVoid()
+              .withAffinity(banana)
+              .map(v -> Util.currThread())
+              .mapAsync(s -> s + " -> " + Util.currThread(), apple)
+              .map(s -> s + " -> " + Util.currThread())
+              .tap(s -> {
+                counters.computeIfAbsent(s, key -> new AtomicInteger()).incrementAndGet();
+                latch.countDown();
+              }));
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(Map.of("banana -> apple -> apple", ITERATIONS), toMap(counters));
+  }
+
+  @Test
+  public void testComposeRunsOnBoundExecutor() throws Exception {
+    final SimpleFuture<String> inner = new SimpleFuture<>();
+    final SimpleFuture<String> result = SimpleFuture.completed("x")
+            .withAffinity(apple)
+            .thenCompose(s -> inner)
+            .thenApply(s -> s + " -> " + Util.currThread());
+    banana.execute(() -> inner.complete(Util.currThread()));
+    assertEquals("banana -> apple", result.join(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDispatchIsElidedOnSameExecutor() throws Exception {
+    final AtomicInteger dispatches = new AtomicInteger();
+    final Executor counting = command -> {
+      dispatches.incrementAndGet();
+      apple.execute(command);
+    };
+    final SimpleFuture<Integer> source = new SimpleFuture<>();
+    SimpleFuture<Integer> future = source.withAffinity(counting);
+    for (int i = 0; i < 10; i++) {
+      future = future.thenApply(x -> x + 1);
+    }
+    source.complete(0);
+    assertEquals(10, (int) future.join(10, TimeUnit.SECONDS));
+    // Only the first stage has to move to the executor, the rest run inline
+    assertEquals(1, dispatches.get());
+  }
+
+  @Test
+  public void testAffinityExecutorKnowsCurrentThread() throws Exception {
+    final AffinityExecutor executor = AffinityExecutor.of(apple);
+    assertFalse(executor.isCurrentThread());
+    final SimpleFuture<Boolean> onExecutor = new SimpleFuture<>();
+    executor.execute(() -> onExecutor.complete(executor.isCurrentThread()));
+    assertTrue(onExecutor.join(10, TimeUnit.SECONDS));
+    assertSame(executor, AffinityExecutor.of(executor));
+  }
+
+  private static Map<String, Integer> toMap(Map<String, AtomicInteger> counters) {
+    final Map<String, Integer> map = new ConcurrentHashMap<>();
+    counters.forEach((key, value) -> map.put(key, value.get()));
+    return map;
+  }
+}
@@ -0,0 +1,152 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AllAsListTest {
+
+  @Test
+  public void testAllAsList() throws Exception {
+    SimpleFuture<String> a = new SimpleFuture<>();
+    SimpleFuture<String> b = new SimpleFuture<>();
+    SimpleFuture<String> c = new SimpleFuture<>();
+    SimpleFuture<List<String>> all = SimpleFuture.allAsList(List.of(a, b, c));
+
+    c.complete("C");
+    a.complete("A");
+    assertFalse(all.isDone());
+    b.complete("B");
+
+    // No need to join the inputs, unlike with CompletableFuture.allOf (see AllOfTest)
+    assertEquals(List.of("A", "B", "C"), all.join());
+  }
+
+  @Test
+  public void testAllAsListFailsFast() throws Exception {
+    SimpleFuture<String> a = new SimpleFuture<>();
+    SimpleFuture<String> b = new SimpleFuture<>();
+    SimpleFuture<List<String>> all = SimpleFuture.allAsList(List.of(a, b));
+
+    IllegalArgumentException exception = new IllegalArgumentException();
+    b.completeExceptionally(exception);
+    assertTrue(all.isDone());
+    try {
+      all.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+    a.complete("A");
+  }
+
+  @Test
+  public void testAllAsListEmpty() throws Exception {
+    assertEquals(List.of(), SimpleFuture.allAsList(List.of()).join());
+    assertEquals(List.of(), PFuture.allAsList(List.of()).getValue());
+  }
+
+  @Test
+  public void testSuccessfulAsList() throws Exception {
+    SimpleFuture<List<String>> all = SimpleFuture.successfulAsList(List.of(
+            SimpleFuture.completed("A"),
+            SimpleFuture.exceptionallyCompleted(new IllegalArgumentException()),
+            SimpleFuture.completed("C")), Throwable::toString);
+    assertEquals(List.of("A", "java.lang.IllegalArgumentException", "C"), all.join());
+  }
+
+  @Test
+  public void testCombine() throws Exception {
+    SimpleFuture<String> a = new SimpleFuture<>();
+    SimpleFuture<Integer> b = new SimpleFuture<>();
+    SimpleFuture<Boolean> c = new SimpleFuture<>();
+    SimpleFuture<String> combined = SimpleFuture.combine(a, b, c, (x, y, z) -> x + y + z);
+    SimpleFuture<String> combined2 = SimpleFuture.combine(a, b, (x, y) -> x + y);
+    a.complete("A");
+    b.complete(1);
+    assertEquals("A1", combined2.join());
+    c.complete(true);
+    assertEquals("A1true", combined.join());
+  }
+
+  @Test
+  public void testCombineFunctionThrows() throws Exception {
+    IllegalArgumentException exception = new IllegalArgumentException();
+    SimpleFuture<String> combined = SimpleFuture.combine(
+            SimpleFuture.completed("A"), SimpleFuture.completed("B"), (x, y) -> Util.doThrow(exception));
+    try {
+      combined.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testLargeFanOut() throws Exception {
+    int size = 50_000;
+    List<SimpleFuture<Integer>> futures = new ArrayList<>();
+    List<Promise<Integer>> promises = new ArrayList<>();
+    List<PFuture<Integer>> pFutures = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      futures.add(new SimpleFuture<>());
+      Promise<Integer> promise = Promise.newPromise();
+      promises.add(promise);
+      pFutures.add(promise.getFuture());
+    }
+    SimpleFuture<List<Integer>> all = SimpleFuture.allAsList(futures);
+    PFuture<List<Integer>> pAll = PFuture.allAsList(pFutures);
+    for (int i = size - 1; i >= 0; i--) {
+      futures.get(i).complete(i);
+      promises.get(i).complete(i);
+    }
+    List<Integer> values = all.join();
+    List<Integer> pValues = pAll.getValue();
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, values.get(i).intValue());
+      assertEquals(i, pValues.get(i).intValue());
+    }
+  }
+
+  @Test
+  public void testPFutureAllAsList() {
+    Promise<String> a = Promise.newPromise();
+    Promise<String> b = Promise.newPromise();
+    PFuture<List<String>> all = PFuture.allAsList(List.of(a.getFuture(), b.getFuture()));
+    b.complete("B");
+    assertFalse(all.isDone());
+    a.complete("A");
+    assertEquals(List.of("A", "B"), all.getValue());
+  }
+
+  @Test
+  public void testPFutureAllAsListFailsFast() {
+    Promise<String> a = Promise.newPromise();
+    Promise<String> b = Promise.newPromise();
+    PFuture<List<String>> all = PFuture.allAsList(List.of(a.getFuture(), b.getFuture()));
+    IllegalArgumentException exception = new IllegalArgumentException();
+    b.completeExceptionally(exception);
+    assertSame(exception, all.getException());
+  }
+
+  @Test
+  public void testPFutureSuccessfulAsListAndCombine() {
+    PFuture<List<String>> all = PFuture.successfulAsList(List.of(
+            PFuture.completed("A"),
+            PFuture.exceptionallyCompleted(new IllegalArgumentException())), e -> "default");
+    assertEquals(List.of("A", "default"), all.getValue());
+
+    PFuture<String> combined = PFuture.combine(
+            PFuture.completed("A"), PFuture.completed(1), PFuture.completed(true), (x, y, z) -> x + y + z);
+    assertEquals("A1true", combined.getValue());
+    assertEquals("A1", PFuture.combine(PFuture.completed("A"), PFuture.completed(1), (x, y) -> x + y).getValue());
+  }
+}
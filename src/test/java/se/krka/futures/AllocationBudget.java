@@ -0,0 +1,95 @@
+package se.krka.futures;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the bytes allocated per operation on the current thread, and fails if any operation is over its budget.
+ * All the operations are measured before failing, so the failure shows the whole breakdown.
+ *
+ * Each operation gets its inputs from a setup function that runs before the measurement starts,
+ * so only the operation itself is counted. The operation is measured over a number of rounds after warming up,
+ * and the lowest result is used, so that a one-off allocation such as class initialization is not counted.
+ *
+ * Each budget gets some headroom, so that a JVM with a slightly different object layout, such as larger object
+ * headers, does not fail the build. A budget of zero stays zero, since any allocation at all is a regression there.
+ */
+final class AllocationBudget {
+  private static final int OPERATIONS = 10_000;
+  private static final int WARMUP_ROUNDS = 10;
+  private static final int ROUNDS = 5;
+  private static final double HEADROOM = 0.25;
+
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  // Keeps the results reachable, so the JIT can not remove the allocations being measured
+  private static volatile Object sink;
+
+  private final List<String> lines = new ArrayList<>();
+  private boolean failed;
+
+  AllocationBudget() {
+    Assume.assumeTrue(THREAD_MX_BEAN.isThreadAllocatedMemorySupported()
+            && THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled());
+    // Object sizes, and therefore the budgets, depend on the size of references
+    final HotSpotDiagnosticMXBean diagnostics = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+    Assume.assumeTrue(diagnostics != null && "true".equals(diagnostics.getVMOption("UseCompressedOops").getValue()));
+  }
+
+  /**
+   * @param setup creates the input for one operation, for example an incomplete future
+   * @param operation the operation to measure
+   */
+  <S> AllocationBudget measure(String name, double budget, IntFunction<S> setup, Operation<S> operation) throws Exception {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      round(setup, operation);
+    }
+    double bytes = Double.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      bytes = Math.min(bytes, round(setup, operation));
+    }
+    final double limit = limit(budget);
+    final boolean over = bytes > limit;
+    failed |= over;
+    lines.add(String.format("%-40s %8.1f B/op  budget %6.1f B/op  limit %6.1f B/op%s",
+            name, bytes, budget, limit, over ? "  OVER BUDGET" : ""));
+    return this;
+  }
+
+  void verify() {
+    if (failed) {
+      throw new AssertionError("Allocation budget exceeded:\n" + String.join("\n", lines));
+    }
+  }
+
+  /**
+   * @return the budget plus the headroom, rounded up to the 8 byte object alignment
+   */
+  private static double limit(double budget) {
+    return Math.ceil(budget * (1 + HEADROOM) / 8) * 8;
+  }
+
+  private static <S> double round(IntFunction<S> setup, Operation<S> operation) throws Exception {
+    final List<S> inputs = new ArrayList<>(OPERATIONS);
+    for (int i = 0; i < OPERATIONS; i++) {
+      inputs.add(setup.apply(i));
+    }
+    final long threadId = Thread.currentThread().getId();
+    final long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < OPERATIONS; i++) {
+      sink = operation.run(inputs.get(i));
+    }
+    final long after = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+    return (double) (after - before) / OPERATIONS;
+  }
+
+  interface Operation<S> {
+    Object run(S input) throws Exception;
+  }
+}
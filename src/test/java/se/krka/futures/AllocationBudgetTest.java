@@ -0,0 +1,71 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.function.Function;
+
+/**
+ * Fails the build if the hot paths of the futures allocate more than they do today.
+ * The budgets are the current allocation on a 64-bit JVM with compressed oops, and {@link AllocationBudget} adds
+ * some headroom on top. Lower them when an allocation is removed.
+ */
+public class AllocationBudgetTest {
+
+  private static final String VALUE = "value";
+  private static final Function<String, String> IDENTITY = s -> s;
+  private static final Function<String, SimpleFuture<String>> SIMPLE_COMPOSE = SimpleFuture::completed;
+  private static final Function<String, PFuture<String>> P_COMPOSE = PFuture::completed;
+
+  @Test
+  public void testSimpleFuture() throws Exception {
+    new AllocationBudget()
+            .measure("SimpleFuture.complete", 24, i -> new SimpleFuture<String>(), future -> {
+              future.complete(VALUE);
+              return future;
+            })
+            .measure("SimpleFuture.complete, one stage", 48, i -> {
+              final SimpleFuture<String> future = new SimpleFuture<>();
+              future.thenApply(IDENTITY);
+              return future;
+            }, future -> {
+              future.complete(VALUE);
+              return future;
+            })
+            .measure("SimpleFuture.thenApply", 72, i -> new SimpleFuture<String>(),
+                    future -> future.thenApply(IDENTITY))
+            .measure("SimpleFuture.thenApply, completed", 56, i -> SimpleFuture.completed("" + i),
+                    future -> future.thenApply(IDENTITY))
+            .measure("SimpleFuture.thenCompose", 72, i -> new SimpleFuture<String>(),
+                    future -> future.thenCompose(SIMPLE_COMPOSE))
+            .measure("SimpleFuture.join, completed", 0, i -> SimpleFuture.completed("" + i), SimpleFuture::join)
+            .verify();
+  }
+
+  @Test
+  public void testPFuture() throws Exception {
+    new AllocationBudget()
+            .measure("PFuture.map", 32, i -> Promise.<String>newPromise().getFuture(),
+                    future -> future.map(IDENTITY))
+            .measure("PFuture.map, completed", 56, i -> PFuture.completed("" + i),
+                    future -> future.map(IDENTITY))
+            .measure("PFuture.flatMap", 32, i -> Promise.<String>newPromise().getFuture(),
+                    future -> future.flatMap(P_COMPOSE))
+            .measure("Promise.complete, one map stage", 48, i -> {
+              final Promise<String> promise = Promise.newPromise();
+              promise.getFuture().map(IDENTITY);
+              return promise;
+            }, promise -> {
+              promise.complete(VALUE);
+              return promise;
+            })
+            .measure("Promise.complete, one flatMap stage", 80, i -> {
+              final Promise<String> promise = Promise.newPromise();
+              promise.getFuture().flatMap(P_COMPOSE);
+              return promise;
+            }, promise -> {
+              promise.complete(VALUE);
+              return promise;
+            })
+            .verify();
+  }
+}
@@ -0,0 +1,235 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockingDetectorTest {
+
+  @After
+  public void tearDown() {
+    BlockingDetector.setMode(BlockingDetector.Mode.OFF);
+    BlockingDetector.setSampleInterval(100);
+    BlockingDetector.unregisterNonBlockingThread();
+    BlockingDetector.reset();
+  }
+
+  @Test
+  public void testCompletedFuturesAreNotChecked() throws Exception {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    BlockingDetector.registerNonBlockingThread();
+    assertEquals("done", SimpleFuture.completed("done").join());
+    assertEquals("done", PFuture.completed("done").toCompletableFuture().join());
+    assertTrue(BlockingDetector.callSites().isEmpty());
+  }
+
+  @Test
+  public void testOffByDefault() throws Exception {
+    BlockingDetector.registerNonBlockingThread();
+    final SimpleFuture<String> future = new SimpleFuture<>();
+    try {
+      future.join(1, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (TimeoutException e) {
+      // expected
+    }
+    assertTrue(BlockingDetector.callSites().isEmpty());
+  }
+
+  @Test
+  public void testRecordsWaitsOnNonBlockingThreads() throws Exception {
+    BlockingDetector.setMode(BlockingDetector.Mode.RECORD);
+    final ExecutorService eventLoop = Executors.newSingleThreadExecutor(
+            BlockingDetector.nonBlockingThreadFactory(Executors.defaultThreadFactory()));
+    try {
+      for (int i = 0; i < 3; i++) {
+        eventLoop.submit(() -> {
+          try {
+            return new SimpleFuture<String>().join(1, TimeUnit.MILLISECONDS);
+          } catch (TimeoutException e) {
+            return null;
+          }
+        }).get();
+      }
+      // Waits on unregistered threads are fine
+      try {
+        new SimpleFuture<String>().join(1, TimeUnit.MILLISECONDS);
+        fail();
+      } catch (TimeoutException e) {
+        // expected
+      }
+    } finally {
+      eventLoop.shutdownNow();
+    }
+
+    final Map<String, Long> callSites = BlockingDetector.callSites();
+    assertEquals(1, callSites.size());
+    final Map.Entry<String, Long> site = callSites.entrySet().iterator().next();
+    assertTrue(site.getKey(), site.getKey().startsWith(BlockingDetectorTest.class.getName()));
+    assertEquals(3L, (long) site.getValue());
+    assertNotNull(BlockingDetector.sample(site.getKey()));
+  }
+
+  @Test
+  public void testFailFast() throws Exception {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    BlockingDetector.registerNonBlockingThread();
+    try {
+      new SimpleFuture<String>().joinUnwrapped();
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("non-blocking thread"));
+    }
+    assertEquals(1, BlockingDetector.callSites().size());
+  }
+
+  @Test
+  public void testWaitInsideCallback() {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    final SimpleFuture<String> other = new SimpleFuture<>();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final SimpleFuture<String> future = new SimpleFuture<>();
+    future.thenApply(value -> {
+      try {
+        return other.joinUninterruptibly();
+      } catch (Throwable e) {
+        failure.set(e);
+        return null;
+      }
+    });
+    future.complete("value");
+    assertTrue(failure.get() instanceof IllegalStateException);
+    assertTrue(failure.get().getMessage(), failure.get().getMessage().contains("callback"));
+  }
+
+  @Test
+  public void testWaitInsideAsyncStage() throws Exception {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final AtomicReference<Throwable> failure = new AtomicReference<>();
+      final SimpleFuture<String> future = new SimpleFuture<>();
+      final SimpleFuture<String> stage = future.thenApplyAsync(value -> waitForOther(failure), executor);
+      future.complete("value");
+      stage.join();
+      assertWaitInsideCallback(failure.get());
+
+      final Promise<String> promise = Promise.newPromise();
+      final PFuture<String> mapped = promise.getFuture().mapAsync(value -> waitForOther(failure), executor);
+      failure.set(null);
+      promise.complete("value");
+      mapped.toCompletableFuture().get();
+      assertWaitInsideCallback(failure.get());
+
+      // The thread is no longer marked once the stage is done
+      assertEquals("timed out", executor.submit(() -> {
+        try {
+          return new SimpleFuture<String>().join(1, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          return "timed out";
+        }
+      }).get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testDependentsRunRightAwayInsideAsyncStage() throws Exception {
+    BlockingDetector.setMode(BlockingDetector.Mode.RECORD);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final SimpleFuture<Integer> future = new SimpleFuture<>();
+      final SimpleFuture<Integer> stage = future.thenApplyAsync(value -> {
+        final SimpleFuture<Integer> promise = new SimpleFuture<>();
+        final SimpleFuture<Integer> derived = promise.thenApply(x -> x + 1);
+        promise.complete(value);
+        try {
+          return derived.join(500, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          return -1;
+        }
+      }, executor);
+      future.complete(1);
+      assertEquals(2, (int) stage.join());
+      assertTrue(BlockingDetector.callSites().isEmpty());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWaitInsidePrimitiveListener() {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final IntFuture future = new IntFuture();
+    future.map(value -> {
+      waitForOther(failure);
+      return value;
+    });
+    future.complete(1);
+    assertWaitInsideCallback(failure.get());
+  }
+
+  private static String waitForOther(AtomicReference<Throwable> failure) {
+    try {
+      return new SimpleFuture<String>().joinUninterruptibly();
+    } catch (Throwable e) {
+      failure.set(e);
+      return null;
+    }
+  }
+
+  private static void assertWaitInsideCallback(Throwable failure) {
+    assertTrue(String.valueOf(failure), failure instanceof IllegalStateException);
+    assertTrue(failure.getMessage(), failure.getMessage().contains("callback"));
+  }
+
+  @Test
+  public void testCompletableFutureWrapper() {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    BlockingDetector.registerNonBlockingThread();
+
+    final CompletableFuture<String> done = CompletableFuture.completedFuture("done");
+    assertSame(done, BlockingDetector.wrap(done));
+
+    final CompletableFuture<String> source = new CompletableFuture<>();
+    final CompletableFuture<Integer> derived = BlockingDetector.wrap(source).thenApply(String::length);
+    try {
+      derived.join();
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    source.complete("value");
+    assertEquals(5, (int) derived.join());
+    assertEquals(1, BlockingDetector.callSites().size());
+  }
+
+  @Test
+  public void testPFutureToCompletableFuture() {
+    BlockingDetector.setMode(BlockingDetector.Mode.FAIL_FAST);
+    BlockingDetector.registerNonBlockingThread();
+    final Promise<String> promise = Promise.newPromise();
+    final CompletableFuture<String> future = promise.getFuture().toCompletableFuture();
+    try {
+      future.join();
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CancelPropagationTest {
+
+  @Test
+  public void testSimpleFutureCancelChildCancelsParent() {
+    SimpleFuture<String> parent = new SimpleFuture<>();
+    SimpleFuture<String> child = parent.thenApply(s -> s + "!");
+    child.cancel();
+
+    assertTrue(child.isCancelled());
+    assertTrue(parent.isCancelled());
+  }
+
+  @Test
+  public void testSimpleFutureParentWaitsForAllDependents() {
+    SimpleFuture<String> parent = new SimpleFuture<>();
+    SimpleFuture<String> child1 = parent.thenApply(s -> s + "1");
+    SimpleFuture<String> child2 = parent.thenApply(s -> s + "2");
+
+    child1.cancel();
+    assertFalse(parent.isDone());
+
+    child2.cancel();
+    assertTrue(parent.isCancelled());
+  }
+
+  @Test
+  public void testSimpleFutureLiveDependentKeepsParent() throws Exception {
+    SimpleFuture<String> parent = new SimpleFuture<>();
+    SimpleFuture<String> child1 = parent.thenApply(s -> s + "1");
+    SimpleFuture<String> child2 = parent.thenApply(s -> s + "2");
+
+    child1.cancel();
+    parent.complete("x");
+    assertEquals("x2", child2.join());
+  }
+
+  @Test
+  public void testSimpleFutureCancelWalksChain() {
+    SimpleFuture<Integer> root = new SimpleFuture<>();
+    SimpleFuture<Integer> future = root;
+    for (int i = 0; i < 100000; i++) {
+      future = future.thenApply(x -> x + 1);
+    }
+    future.cancel();
+    assertTrue(root.isCancelled());
+  }
+
+  @Test
+  public void testSimpleFutureCancelReachesComposedFuture() {
+    SimpleFuture<String> source = new SimpleFuture<>();
+    SimpleFuture<String> rpc = new SimpleFuture<>();
+    SimpleFuture<String> result = source.thenCompose(s -> rpc);
+
+    source.complete("request");
+    result.cancel();
+    assertTrue(rpc.isCancelled());
+  }
+
+  @Test
+  public void testSimpleFutureOnCancel() {
+    AtomicInteger aborted = new AtomicInteger();
+    SimpleFuture<String> rpc = new SimpleFuture<>();
+    rpc.onCancel(aborted::incrementAndGet);
+
+    rpc.thenApply(s -> s).withAffinity(Runnable::run).cancel();
+    assertEquals(1, aborted.get());
+  }
+
+  @Test
+  public void testSimpleFutureCompletedSourceIsUntouched() throws Exception {
+    SimpleFuture<String> parent = new SimpleFuture<>();
+    parent.complete("x");
+    parent.thenApplyAsync(s -> s, command -> { }).cancel();
+    assertEquals("x", parent.join());
+  }
+
+  @Test
+  public void testPromiseOnCancelWhenAllDependentsCancelled() {
+    AtomicInteger aborted = new AtomicInteger();
+    Promise<String> promise = Promise.newPromise();
+    promise.onCancel(aborted::incrementAndGet);
+
+    PFuture<String> a = promise.getFuture().map(s -> s + "a");
+    PFuture<String> b = promise.getFuture().map(s -> s + "b").tap(s -> { });
+
+    assertTrue(a.cancel());
+    assertFalse(promise.isCancelled());
+
+    assertTrue(b.cancel());
+    assertTrue(promise.isCancelled());
+    assertEquals(1, aborted.get());
+  }
+
+  @Test
+  public void testPFutureCancelReachesComposedFuture() {
+    Promise<String> request = Promise.newPromise();
+    Promise<String> rpc = Promise.newPromise();
+    PFuture<String> result = request.getFuture().flatMap(s -> rpc.getFuture());
+
+    request.complete("request");
+    result.cancel();
+    assertTrue(rpc.isCancelled());
+  }
+
+  @Test
+  public void testPFutureCancelledSourceFailsDependents() {
+    Promise<String> promise = Promise.newPromise();
+    PFuture<String> composed = promise.getFuture().flatMap(PFuture::completed);
+    promise.cancel();
+
+    assertTrue(composed.isCompletedExceptionally());
+    assertTrue(composed.getException() instanceof CancellationException);
+  }
+
+  @Test
+  public void testPFutureAffinityViewCancelsSource() {
+    Promise<String> promise = Promise.newPromise();
+    promise.getFuture().withAffinity(Runnable::run).map(s -> s).cancel();
+    assertTrue(promise.isCancelled());
+  }
+
+  @Test
+  public void testPromiseReturnsSameFuture() {
+    Promise<String> promise = Promise.newPromise();
+    assertSame(promise.getFuture(), promise.getFuture());
+  }
+
+  @Test
+  public void testPFutureCombinatorKeepsSource() {
+    Promise<String> p = Promise.newPromise();
+    Promise<String> q = Promise.newPromise();
+    PFuture<String> a = p.getFuture().map(s -> s + "!");
+    PFuture<List<String>> all = PFuture.allAsList(List.of(p.getFuture(), q.getFuture()));
+
+    assertTrue(a.cancel());
+    assertFalse(p.isCancelled());
+
+    p.complete("p");
+    q.complete("q");
+    assertEquals(List.of("p", "q"), all.getValue());
+  }
+
+  @Test
+  public void testPFutureListenerKeepsSource() {
+    AtomicReference<String> seen = new AtomicReference<>();
+    Promise<String> promise = Promise.newPromise();
+    promise.getFuture().whenDone((value, throwable) -> seen.set(throwable == null ? value : "failed"));
+    PFuture<String> child = promise.getFuture().map(s -> s + "!");
+
+    assertTrue(child.cancel());
+    assertFalse(promise.isCancelled());
+
+    promise.complete("x");
+    assertEquals("x", seen.get());
+  }
+
+  @Test
+  public void testPFutureCompletableFutureKeepsSource() {
+    Promise<String> promise = Promise.newPromise();
+    CompletableFuture<String> bridged = promise.getFuture().toCompletableFuture();
+    promise.getFuture().map(s -> s + "!").cancel();
+    assertFalse(promise.isCancelled());
+
+    promise.complete("x");
+    assertEquals("x", bridged.join());
+  }
+
+  @Test
+  public void testPFutureCancelledStageAfterRaceCancelsInputs() {
+    Promise<String> a = Promise.newPromise();
+    Promise<String> b = Promise.newPromise();
+    PFuture.race(List.of(a.getFuture(), b.getFuture())).map(s -> s + "!").cancel();
+
+    assertTrue(a.isCancelled());
+    assertTrue(b.isCancelled());
+  }
+
+  @Test
+  public void testPFutureCancelledStageAfterTraverseCancelsCalls() {
+    Promise<String> call = Promise.newPromise();
+    PFuture.traverse(List.of(1), i -> call.getFuture(), 1).map(list -> list.size()).cancel();
+    assertTrue(call.isCancelled());
+  }
+
+  @Test
+  public void testSimpleFutureCombinatorKeepsSource() throws Exception {
+    SimpleFuture<String> source = new SimpleFuture<>();
+    SimpleFuture<String> child = source.thenApply(s -> s + "!");
+    SimpleFuture<List<String>> all = SimpleFuture.allAsList(List.of(source));
+
+    child.cancel();
+    assertFalse(source.isDone());
+
+    source.complete("x");
+    assertEquals(List.of("x"), all.join());
+  }
+
+  @Test
+  public void testSimpleFuturePrimitiveFutureKeepsSource() throws Exception {
+    SimpleFuture<String> source = new SimpleFuture<>();
+    IntFuture length = source.mapToInt(String::length);
+    source.thenApply(s -> s + "!").cancel();
+    assertFalse(source.isDone());
+
+    source.complete("abc");
+    assertEquals(3, length.join());
+  }
+
+  @Test
+  public void testSimpleFutureCancelsOnceOtherStagesAreCancelledToo() {
+    SimpleFuture<String> source = new SimpleFuture<>();
+    SimpleFuture<String> bound = source.withAffinity(Runnable::run);
+    SimpleFuture<String> child = source.thenApply(s -> s + "!");
+
+    child.cancel();
+    assertFalse(source.isDone());
+    bound.cancel();
+    assertTrue(source.isCancelled());
+  }
+}
@@ -0,0 +1,141 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConstantsTest {
+
+  @Test
+  public void testSharedSimpleFutureResults() throws Exception {
+    assertNotSame(SimpleFuture.completed(null), SimpleFuture.completed(null));
+    assertSame(SimpleFuture.completed(null).resultNow(), SimpleFuture.completed(null).resultNow());
+    assertSame(SimpleFuture.completedVoid().resultNow(), SimpleFuture.completed(null).resultNow());
+    assertSame(SimpleFuture.completed(true).resultNow(), SimpleFuture.completed(Boolean.TRUE).resultNow());
+    assertSame(SimpleFuture.completedVoid(), SimpleFuture.completedVoid());
+
+    assertNull(SimpleFuture.completedVoid().join());
+    assertTrue(SimpleFuture.completed(true).join());
+    assertEquals(-128, SimpleFuture.completed(-128).join().intValue());
+  }
+
+  @Test
+  public void testCompletedFutureCanBeExtruded() throws Exception {
+    SimpleFuture<String> future = SimpleFuture.completed(null);
+    future.extrude("value");
+    assertEquals("value", future.join());
+    assertNull(SimpleFuture.completed(null).join());
+
+    SimpleFuture<Boolean> bool = SimpleFuture.completed(true);
+    bool.extrude(false);
+    assertTrue(SimpleFuture.completed(true).join());
+  }
+
+  @Test
+  public void testTransformedCompletedFutureCanBeExtruded() throws Exception {
+    SimpleFuture<Boolean> mapped = SimpleFuture.completed("").thenApply(String::isEmpty);
+    mapped.extrude(false);
+    assertEquals(false, mapped.join());
+
+    SimpleFuture<String> recovered = SimpleFuture.<String>exceptionallyCompleted(new IllegalArgumentException())
+            .exceptionally(e -> null);
+    recovered.extrude("value");
+    assertEquals("value", recovered.join());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSharedVoidFutureCanNotBeExtruded() {
+    SimpleFuture.completedVoid().extrude(null);
+  }
+
+  @Test
+  public void testSharedVoidFutureIgnoresCompletion() throws Exception {
+    SimpleFuture<Void> future = SimpleFuture.completedVoid();
+    future.completeExceptionally(new IllegalArgumentException());
+    future.cancel();
+    assertNull(future.join());
+    assertNull(SimpleFuture.completedVoid().join());
+  }
+
+  @Test
+  public void testTransformOnCompletedFuture() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    SimpleFuture<Object> result = SimpleFuture.completed("value").thenApply(s -> {
+      calls.incrementAndGet();
+      return null;
+    });
+    assertEquals(1, calls.get());
+    assertNull(result.join());
+    assertTrue(SimpleFuture.completed("").thenApply(String::isEmpty).join());
+    assertEquals(3, SimpleFuture.completed("abc").thenCompose(s -> SimpleFuture.completed(s.length())).join().intValue());
+  }
+
+  @Test
+  public void testComposeOnCompletedFutureWithIncompleteResult() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    SimpleFuture<String> inner = new SimpleFuture<>();
+    SimpleFuture<String> result = SimpleFuture.completed("value").thenCompose(s -> {
+      calls.incrementAndGet();
+      return inner;
+    });
+    inner.complete("inner");
+    assertEquals("inner", result.join());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testTransformOnFailedFuture() throws Exception {
+    IllegalArgumentException exception = new IllegalArgumentException();
+    try {
+      SimpleFuture.<String>exceptionallyCompleted(exception).thenApply(s -> s + s).join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testSharedPFutures() {
+    assertSame(PFuture.completed(null), PFuture.completed(null));
+    assertSame(PFuture.completedVoid(), PFuture.completed(null));
+    assertSame(PFuture.completed(true), PFuture.completed(true));
+    assertSame(PFuture.completed(false), PFuture.completed(false));
+    assertNull(PFuture.completedVoid().getValue());
+  }
+
+  @Test
+  public void testSharedSmallIntegerPFutures() {
+    assertSame(PFuture.completed(0), PFuture.completed(0));
+    assertSame(PFuture.completed(-128), PFuture.completed(-128));
+    assertSame(PFuture.completed(127), PFuture.completed(127));
+    assertEquals(127, (int) PFuture.completed(127).getValue());
+    assertNotSame(PFuture.completed(128), PFuture.completed(128));
+    assertNotSame(PFuture.completed(1L), PFuture.completed(1L));
+
+    // Transforms of completed futures share them too
+    assertSame(PFuture.completed(2), PFuture.completed("xy").map(String::length));
+  }
+
+  @Test
+  public void testPFutureTransformsOnCompletedFuture() {
+    assertSame(PFuture.completed(null), PFuture.completed("value").map(s -> null));
+    assertEquals("valuevalue", PFuture.completed("value").map(s -> s + s).getValue());
+
+    PFuture<String> value = PFuture.completed("value");
+    assertSame(value, value.tap(s -> { }));
+    assertSame(value, PFuture.completed(1).flatMap(i -> value));
+
+    IllegalArgumentException exception = new IllegalArgumentException();
+    PFuture<String> failed = PFuture.completed("value").map(s -> Util.doThrow(exception));
+    assertSame(exception, failed.getException());
+    assertSame(exception, failed.map(s -> s + s).getException());
+  }
+}
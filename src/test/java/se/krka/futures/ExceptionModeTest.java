@@ -0,0 +1,133 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExceptionModeTest {
+
+  @After
+  public void tearDown() {
+    ExceptionMode.setDefault(ExceptionMode.FULL);
+  }
+
+  @Test
+  public void testFullByDefault() {
+    PFuture<String> future = Promise.<String>newPromise().getFuture();
+    future.cancel();
+    assertTrue(future.getException() instanceof CancellationException);
+    assertTrue(future.getException().getStackTrace().length > 0);
+  }
+
+  @Test
+  public void testStacklessPerCall() {
+    PFuture<String> future = Promise.<String>newPromise().getFuture();
+    future.cancel(ExceptionMode.STACKLESS);
+    assertTrue(future.isCancelled());
+    assertTrue(future.getException() instanceof CancellationException);
+    assertEquals(0, future.getException().getStackTrace().length);
+  }
+
+  @Test
+  public void testSharedInstance() {
+    SimpleFuture<String> a = new SimpleFuture<>();
+    SimpleFuture<String> b = new SimpleFuture<>();
+    a.cancel(ExceptionMode.SHARED);
+    b.cancel(ExceptionMode.SHARED);
+    assertSame(a.resultNow().throwable, b.resultNow().throwable);
+    assertNotSame(ExceptionMode.STACKLESS.newCancellation(), ExceptionMode.STACKLESS.newCancellation());
+  }
+
+  @Test
+  public void testGlobalDefault() {
+    ExceptionMode.setDefault(ExceptionMode.SHARED);
+    Promise<String> promise = Promise.newPromise();
+    promise.cancel();
+    IntFuture primitive = new IntFuture();
+    primitive.cancel();
+
+    assertTrue(promise.isCancelled());
+    assertSame(ExceptionMode.SHARED.newCancellation(), promise.getFuture().getException());
+    assertSame(ExceptionMode.SHARED.newCancellation(), primitive.exception());
+  }
+
+  @Test
+  public void testCancelWalkSharesException() {
+    Promise<String> promise = Promise.newPromise();
+    PFuture<String> child = promise.getFuture().map(s -> s);
+    child.cancel();
+    assertSame(child.getException(), promise.getFuture().getException());
+  }
+
+  @Test
+  public void testStacklessTimeout() throws Exception {
+    PFuture<String> future = Promise.<String>newPromise().getFuture()
+            .orTimeout(Duration.ofMillis(10), Runnable::run, HashedWheelTimer.defaultTimer(), ExceptionMode.STACKLESS);
+    for (int i = 0; i < 1000 && !future.isDone(); i++) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    assertTrue(future.getException() instanceof TimeoutException);
+    assertEquals(0, future.getException().getStackTrace().length);
+
+    SimpleFuture<String> simple = new SimpleFuture<String>()
+            .orTimeout(Duration.ofMillis(10), Runnable::run, HashedWheelTimer.defaultTimer(), ExceptionMode.SHARED);
+    try {
+      simple.joinUnwrapped();
+      fail();
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+      assertNotSame(ExceptionMode.SHARED.newTimeout(), e.getCause());
+      assertEquals(0, e.getCause().getStackTrace().length);
+    }
+  }
+
+  @Test
+  public void testSharedExceptionIsNotThrown() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    future.cancel(ExceptionMode.SHARED);
+    CancellationException shared = ExceptionMode.SHARED.newCancellation();
+    assertSame(shared, future.resultNow().throwable);
+
+    try (AutoCloseable resource = () -> {
+      throw new IllegalStateException("close failed");
+    }) {
+      future.joinUnwrapped();
+      fail();
+    } catch (CancellationException e) {
+      assertNotSame(shared, e);
+      assertEquals(0, e.getStackTrace().length);
+      assertEquals(1, e.getSuppressed().length);
+    }
+    assertEquals(0, shared.getSuppressed().length);
+
+    try {
+      future.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CancellationException);
+      assertNotSame(shared, e.getCause());
+    }
+
+    Promise<String> promise = Promise.newPromise();
+    promise.cancel(ExceptionMode.SHARED);
+    try {
+      promise.getFuture().toCompletableFuture().join();
+      fail();
+    } catch (CancellationException e) {
+      // The JDK throws a cancellation as is
+      assertNotSame(shared, e);
+    }
+  }
+}
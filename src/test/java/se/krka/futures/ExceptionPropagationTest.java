@@ -0,0 +1,102 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unlike {@link java.util.concurrent.CompletableFuture}, see {@link ExceptionTest},
+ * failures pass through every stage unchanged and are only wrapped at the edge, if at all.
+ */
+public class ExceptionPropagationTest {
+
+  private static final int STAGES = 20;
+
+  @Test
+  public void testSimpleFutureChainKeepsException() throws Exception {
+    IllegalArgumentException e = new IllegalArgumentException();
+    SimpleFuture<Integer> root = new SimpleFuture<>();
+    SimpleFuture<Integer> future = root;
+    for (int i = 0; i < STAGES; i++) {
+      future = future.thenApply(x -> x + 1).thenCompose(SimpleFuture::completed);
+    }
+    root.completeExceptionally(e);
+
+    try {
+      future.join();
+      fail();
+    } catch (ExecutionException ex) {
+      assertSame(e, ex.getCause());
+    }
+    AtomicReference<Throwable> seen = new AtomicReference<>();
+    assertEquals(Integer.valueOf(-1), future.exceptionally(t -> {
+      seen.set(t);
+      return -1;
+    }).joinUnwrapped());
+    assertSame(e, seen.get());
+  }
+
+  @Test
+  public void testSimpleFutureJoinUnwrapped() throws Exception {
+    IllegalArgumentException e = new IllegalArgumentException();
+    try {
+      SimpleFuture.exceptionallyCompleted(e).thenApply(x -> x).joinUnwrapped();
+      fail();
+    } catch (IllegalArgumentException ex) {
+      assertSame(e, ex);
+    }
+
+    IOException checked = new IOException();
+    try {
+      SimpleFuture.exceptionallyCompleted(checked).joinUnwrapped();
+      fail();
+    } catch (CompletionException ex) {
+      assertSame(checked, ex.getCause());
+    }
+  }
+
+  @Test
+  public void testSimpleFutureExceptionallyOnlyRecoversFailures() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    SimpleFuture<String> recovered = future.exceptionally(t -> "recovered");
+    future.complete("value");
+    assertEquals("value", recovered.join());
+    assertEquals("recovered", SimpleFuture.<String>exceptionallyCompleted(new RuntimeException())
+            .exceptionally(t -> "recovered").join());
+  }
+
+  @Test
+  public void testPFutureChainKeepsException() {
+    IllegalArgumentException e = new IllegalArgumentException();
+    Promise<Integer> promise = Promise.newPromise();
+    PFuture<Integer> future = promise.getFuture();
+    for (int i = 0; i < STAGES; i++) {
+      future = future.map(x -> x + 1).flatMap(PFuture::completed).tap(x -> { });
+    }
+    promise.completeExceptionally(e);
+
+    assertSame(e, future.getException());
+    assertSame(e, future.fold(x -> null, t -> t).getValue());
+    try {
+      future.toCompletableFuture().join();
+      fail();
+    } catch (CompletionException ex) {
+      assertSame(e, ex.getCause());
+    }
+  }
+
+  @Test
+  public void testPFutureExceptionallyOnlyRecoversFailures() {
+    PFuture<String> value = PFuture.completed("value");
+    assertSame(value, value.exceptionally(t -> "recovered"));
+    assertEquals("recovered", PFuture.<String>exceptionallyCompleted(new RuntimeException())
+            .exceptionally(t -> "recovered").getValue());
+  }
+}
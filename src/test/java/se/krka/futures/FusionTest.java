@@ -0,0 +1,73 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class FusionTest {
+
+  @Test
+  public void testFusedChain() throws Exception {
+    SimpleFuture<Integer> source = new SimpleFuture<>();
+    SimpleFuture<String> result = source.fuse()
+            .thenApply(x -> x + 1)
+            .map(x -> x * 2)
+            .thenApply(x -> "value: " + x)
+            .toFuture();
+    source.complete(1);
+    assertEquals("value: 4", result.join());
+  }
+
+  @Test
+  public void testFusedChainOnCompletedFuture() throws Exception {
+    SimpleFuture<String> result = SimpleFuture.completed("a").fuse()
+            .thenApply(s -> s + "b")
+            .thenApply(s -> s + "c")
+            .toFuture();
+    assertEquals("abc", result.join());
+  }
+
+  @Test
+  public void testFusedChainStopsAtFirstException() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    IllegalArgumentException exception = new IllegalArgumentException();
+    SimpleFuture<Integer> result = SimpleFuture.completed(1).fuse()
+            .thenApply(x -> calls.incrementAndGet())
+            .<Integer>thenApply(x -> Util.doThrow(exception))
+            .thenApply(x -> calls.incrementAndGet())
+            .toFuture();
+    assertEquals(1, calls.get());
+    try {
+      result.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testFusedChainPropagatesSourceException() throws Exception {
+    IllegalArgumentException exception = new IllegalArgumentException();
+    SimpleFuture<Integer> result = SimpleFuture.<Integer>exceptionallyCompleted(exception).fuse()
+            .thenApply(x -> x + 1)
+            .toFuture();
+    try {
+      result.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCannotExtendRegisteredChain() {
+    SimpleFuture.Fused<Integer> fused = SimpleFuture.completed(1).fuse();
+    fused.toFuture();
+    fused.thenApply(x -> x + 1);
+  }
+}
@@ -0,0 +1,112 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FutureTracerTest {
+
+  @After
+  public void tearDown() {
+    final FutureTracer tracer = FutureTracer.current;
+    if (tracer != null) {
+      tracer.stop();
+    }
+  }
+
+  @Test
+  public void testOffByDefault() {
+    assertNull(FutureTracer.current);
+    final FutureTracer tracer = FutureTracer.start(16);
+    tracer.stop();
+    assertNull(FutureTracer.current);
+
+    final Promise<String> promise = Promise.newPromise();
+    promise.getFuture().map(String::length);
+    promise.complete("value");
+    assertEquals("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[]}", tracer.toChromeTrace());
+  }
+
+  @Test
+  public void testCriticalPathFollowsTheLastParent() throws Exception {
+    final FutureTracer tracer = FutureTracer.start(1024);
+    final Promise<String> fast = Promise.newPromise();
+    final Promise<String> slow = Promise.newPromise();
+    final PFuture<List<Integer>> both = PFuture.allAsList(List.of(
+            fast.getFuture().map(String::length),
+            slow.getFuture().map(String::length)));
+    fast.complete("fast");
+    Thread.sleep(5);
+    slow.complete("slow");
+    tracer.stop();
+
+    final List<FutureTracer.Span> path = tracer.criticalPath(both);
+    assertEquals(List.of("PFuture", "MapStage", "PFuture"),
+            path.stream().map(FutureTracer.Span::getName).collect(Collectors.toList()));
+    // The slow promise is on the path, so the path starts after the fast one completed
+    assertTrue(path.get(0).getSelfNanos() >= 5_000_000);
+    for (int i = 1; i < path.size(); i++) {
+      assertTrue(path.get(i).getCompletedNanos() >= path.get(i - 1).getCompletedNanos());
+    }
+    assertTrue(tracer.criticalPathReport(both).startsWith("Critical path: 3 futures"));
+  }
+
+  @Test
+  public void testCriticalPathThroughCompose() {
+    final FutureTracer tracer = FutureTracer.start(1024);
+    final SimpleFuture<String> input = new SimpleFuture<>();
+    final SimpleFuture<String> inner = new SimpleFuture<>();
+    final SimpleFuture<Integer> result = input.thenCompose(value -> inner).thenApply(String::length);
+    input.complete("input");
+    inner.complete("inner");
+    tracer.stop();
+
+    final List<FutureTracer.Span> path = tracer.criticalPath(result);
+    assertEquals(3, path.size());
+    assertEquals(path.get(path.size() - 1).getThread(), Thread.currentThread().getName());
+  }
+
+  @Test
+  public void testChromeTrace() {
+    final FutureTracer tracer = FutureTracer.start(1024);
+    final Promise<String> promise = Promise.newPromise();
+    promise.getFuture().map(String::length);
+    promise.getFuture().flatMap(value -> PFuture.exceptionallyCompleted(new IllegalStateException()));
+    promise.complete("value");
+    tracer.stop();
+
+    final String json = tracer.toChromeTrace();
+    assertTrue(json, json.startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":["));
+    assertTrue(json, json.contains("\"ph\":\"M\""));
+    assertTrue(json, json.contains("\"name\":\"MapStage\""));
+    assertTrue(json, json.contains("\"failed\":true"));
+    assertTrue(json, json.contains("\"parents\":[1]"));
+    assertEquals(count(json, "\"ph\":\"b\""), count(json, "\"ph\":\"e\""));
+  }
+
+  @Test
+  public void testRingBufferOverwritesOldestEvents() {
+    final FutureTracer tracer = FutureTracer.start(4);
+    for (int i = 0; i < 10; i++) {
+      Promise.newPromise().complete(i);
+    }
+    tracer.stop();
+    assertEquals(16, tracer.droppedEvents());
+    assertFalse(tracer.toChromeTrace().isEmpty());
+  }
+
+  private static int count(String text, String pattern) {
+    int count = 0;
+    for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,210 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HashedWheelTimerTest {
+
+  private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", Duration.ofMillis(1), 64);
+
+  @After
+  public void tearDown() {
+    timer.stop();
+  }
+
+  @Test
+  public void testTimeoutFires() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    long t1 = System.nanoTime();
+    HashedWheelTimer.Timeout timeout = timer.newTimeout(latch::countDown, Duration.ofMillis(20));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+    assertTrue("elapsed was " + elapsed, elapsed >= 20);
+    assertTrue(timeout.isExpired());
+    assertEquals(0, timer.pendingTimeouts());
+  }
+
+  @Test
+  public void testTimeoutLongerThanWheel() throws Exception {
+    // 64 buckets of 1 ms, so this has to go around the wheel a few times
+    CountDownLatch latch = new CountDownLatch(1);
+    long t1 = System.nanoTime();
+    timer.newTimeout(latch::countDown, Duration.ofMillis(200));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+    assertTrue("elapsed was " + elapsed, elapsed >= 200);
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    AtomicBoolean fired = new AtomicBoolean();
+    HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> fired.set(true), Duration.ofMillis(10));
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    assertTrue(timeout.isCancelled());
+    assertEquals(0, timer.pendingTimeouts());
+    Thread.sleep(50);
+    assertFalse(fired.get());
+  }
+
+  @Test
+  public void testManyTimeouts() throws Exception {
+    int count = 200_000;
+    AtomicInteger fired = new AtomicInteger();
+    List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      timeouts.add(timer.newTimeout(fired::incrementAndGet, Duration.ofMillis(1 + i % 100)));
+    }
+    int cancelled = 0;
+    for (int i = 0; i < count; i += 2) {
+      if (timeouts.get(i).cancel()) {
+        cancelled++;
+      }
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (timer.pendingTimeouts() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, timer.pendingTimeouts());
+    assertEquals(count - cancelled, fired.get());
+  }
+
+  @Test
+  public void testSimpleFutureOrTimeout() throws Exception {
+    ExecutorService executor = Util.newExecutor("timeout-executor");
+    SimpleFuture<String> future = new SimpleFuture<String>().orTimeout(Duration.ofMillis(10), executor, timer);
+    try {
+      future.join(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals(TimeoutException.class, e.getCause().getClass());
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSimpleFutureTimeoutRunsOnExecutor() throws Exception {
+    ExecutorService executor = Util.newExecutor("timeout-executor");
+    SimpleFuture<String> future = new SimpleFuture<String>()
+            .completeOnTimeout("default", Duration.ofMillis(10), executor, timer);
+    SimpleFuture<String> thread = future.thenApply(s -> s + " on " + Util.currThread());
+    assertEquals("default on timeout-executor", thread.join(10, TimeUnit.SECONDS));
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSimpleFutureCompletionCancelsTimeout() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<String>()
+            .orTimeout(Duration.ofSeconds(10), Runnable::run, timer);
+    assertEquals(1, timer.pendingTimeouts());
+    future.complete("value");
+    assertEquals(0, timer.pendingTimeouts());
+    assertEquals("value", future.join());
+  }
+
+  @Test
+  public void testPFutureOrTimeout() throws Exception {
+    Promise<String> promise = Promise.newPromise();
+    PFuture<String> future = promise.getFuture().orTimeout(Duration.ofMillis(10), Runnable::run, timer);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!future.isDone() && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(TimeoutException.class, future.getException().getClass());
+    // The original future is not affected
+    assertFalse(promise.getFuture().isDone());
+  }
+
+  @Test
+  public void testPFutureTimeoutRunsOnExecutor() throws Exception {
+    ExecutorService executor = Util.newExecutor("timeout-executor");
+    Promise<String> promise = Promise.newPromise();
+    AtomicReference<String> thread = new AtomicReference<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    promise.getFuture()
+            .completeOnTimeout("default", Duration.ofMillis(100), executor, timer)
+            .tap(s -> {
+              thread.set(Util.currThread());
+              latch.countDown();
+            });
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals("timeout-executor", thread.get());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testPFutureCompleteOnTimeout() throws Exception {
+    Promise<String> promise = Promise.newPromise();
+    PFuture<String> future = promise.getFuture().completeOnTimeout("default", Duration.ofSeconds(10), Runnable::run, timer);
+    assertEquals(1, timer.pendingTimeouts());
+    promise.complete("value");
+    assertEquals(0, timer.pendingTimeouts());
+    assertEquals("value", future.getValue());
+  }
+
+  @Test
+  public void testPFutureCancelCancelsTimeout() throws Exception {
+    Promise<String> promise = Promise.newPromise();
+    PFuture<String> other = promise.getFuture().map(value -> value);
+    PFuture<String> future = promise.getFuture().orTimeout(Duration.ofSeconds(10), Runnable::run, timer);
+    assertEquals(1, timer.pendingTimeouts());
+    future.cancel();
+    assertEquals(0, timer.pendingTimeouts());
+    assertFalse(promise.isCancelled());
+    promise.complete("value");
+    assertEquals("value", other.getValue());
+  }
+
+  @Test
+  public void testSlowCallbackDoesNotDelayOtherTimeouts() throws Exception {
+    // Unlike the JDK delay scheduler (see OnTimeoutTest) a slow dependent only blocks its own executor
+    ExecutorService slow = Util.newExecutor("slow");
+    ExecutorService fast = Util.newExecutor("fast");
+    CountDownLatch sleeping = new CountDownLatch(1);
+    new SimpleFuture<String>()
+            .completeOnTimeout("value", Duration.ofMillis(1), slow, timer)
+            .thenApply(s -> {
+              sleeping.countDown();
+              return sleep(1000);
+            });
+    assertTrue(sleeping.await(10, TimeUnit.SECONDS));
+
+    long t1 = System.nanoTime();
+    SimpleFuture<String> future = new SimpleFuture<String>().orTimeout(Duration.ofMillis(1), fast, timer);
+    try {
+      future.join(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+      assertTrue("elapsed was " + elapsed, elapsed < 200);
+    }
+    slow.shutdown();
+    fast.shutdown();
+  }
+
+  private static String sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    return null;
+  }
+}
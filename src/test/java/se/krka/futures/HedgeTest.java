@@ -0,0 +1,173 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HedgeTest {
+
+  private final HashedWheelTimer timer = new HashedWheelTimer("hedge-timer", Duration.ofMillis(1), 64);
+  private final HedgeCounters counters = new HedgeCounters();
+  private final List<Promise<String>> requests = new CopyOnWriteArrayList<>();
+
+  @After
+  public void tearDown() {
+    timer.stop();
+  }
+
+  @Test
+  public void testRaceFirstSuccessWins() {
+    Promise<String> a = Promise.newPromise();
+    Promise<String> b = Promise.newPromise();
+    Promise<String> c = Promise.newPromise();
+    PFuture<String> winner = PFuture.race(List.of(a.getFuture(), b.getFuture(), c.getFuture()));
+
+    a.completeExceptionally(new IllegalArgumentException());
+    assertFalse(winner.isDone());
+    b.complete("B");
+
+    assertEquals("B", winner.getValue());
+    assertTrue(c.isCancelled());
+    assertFalse(a.isCancelled());
+    assertFalse(b.isCancelled());
+  }
+
+  @Test
+  public void testRaceAllFail() {
+    Promise<String> a = Promise.newPromise();
+    Promise<String> b = Promise.newPromise();
+    PFuture<String> winner = PFuture.race(List.of(a.getFuture(), b.getFuture()));
+
+    IllegalArgumentException last = new IllegalArgumentException();
+    a.completeExceptionally(new IllegalStateException());
+    b.completeExceptionally(last);
+    assertSame(last, winner.getException());
+  }
+
+  @Test
+  public void testCancelRace() {
+    Promise<String> a = Promise.newPromise();
+    Promise<String> b = Promise.newPromise();
+    PFuture<String> winner = PFuture.race(List.of(a.getFuture(), b.getFuture()));
+    assertTrue(winner.cancel());
+    assertTrue(a.isCancelled());
+    assertTrue(b.isCancelled());
+  }
+
+  @Test
+  public void testNoHedgeForFastResponse() {
+    PFuture<String> result = PFuture.hedge(
+            () -> PFuture.completed("fast"), Duration.ofMillis(10), 3, Runnable::run, timer, counters);
+    assertEquals("fast", result.getValue());
+    assertEquals(0, counters.hedgesFired());
+    assertEquals(0, timer.pendingTimeouts());
+  }
+
+  @Test
+  public void testHedgeWins() throws Exception {
+    PFuture<String> result = PFuture.hedge(this::newRequest, Duration.ofMillis(10), 3, Runnable::run, timer, counters);
+    waitFor(() -> requests.size() == 2);
+
+    requests.get(1).complete("second");
+    assertEquals("second", result.getValue());
+    assertTrue(requests.get(0).isCancelled());
+    int sent = requests.size();
+    assertEquals(sent - 1, counters.hedgesFired());
+    assertEquals(1, counters.hedgesWon());
+
+    // No more hedges once there is a winner
+    Thread.sleep(50);
+    assertEquals(sent, requests.size());
+  }
+
+  @Test
+  public void testFirstRequestWinsAfterHedge() throws Exception {
+    PFuture<String> result = PFuture.hedge(this::newRequest, Duration.ofMillis(10), 2, Runnable::run, timer, counters);
+    waitFor(() -> requests.size() == 2);
+
+    requests.get(0).complete("first");
+    assertEquals("first", result.getValue());
+    assertTrue(requests.get(1).isCancelled());
+    assertEquals(1, counters.hedgesFired());
+    assertEquals(0, counters.hedgesWon());
+  }
+
+  @Test
+  public void testFailureStartsNextAttemptImmediately() {
+    AtomicInteger attempts = new AtomicInteger();
+    IllegalArgumentException last = new IllegalArgumentException();
+    PFuture<String> result = PFuture.hedge(() -> {
+      if (attempts.incrementAndGet() == 3) {
+        return PFuture.exceptionallyCompleted(last);
+      }
+      return PFuture.exceptionallyCompleted(new IllegalStateException());
+    }, Duration.ofSeconds(10), 3, Runnable::run, timer, counters);
+
+    assertSame(last, result.getException());
+    assertEquals(3, attempts.get());
+    assertEquals(0, counters.hedgesFired());
+    assertEquals(2, counters.retriesFired());
+  }
+
+  @Test
+  public void testTimeoutThatFiredBeforeFailureDoesNotSendExtraAttempt() throws Exception {
+    Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    PFuture<String> result = PFuture.hedge(this::newRequest, Duration.ofMillis(1), 3, tasks::add, timer, counters);
+
+    // The timeout has fired, but the hedge it triggers has not run yet when the first request fails
+    waitFor(() -> !tasks.isEmpty());
+    requests.get(0).completeExceptionally(new IllegalStateException());
+    assertEquals(2, tasks.size());
+    tasks.poll().run();
+    tasks.poll().run();
+
+    assertEquals(2, requests.size());
+    assertEquals(0, counters.hedgesFired());
+    assertEquals(1, counters.retriesFired());
+
+    requests.get(1).complete("B");
+    assertEquals("B", result.getValue());
+    assertEquals(0, timer.pendingTimeouts());
+  }
+
+  @Test
+  public void testCancelHedge() throws Exception {
+    PFuture<String> result = PFuture.hedge(this::newRequest, Duration.ofMillis(10), 3, Runnable::run, timer, counters);
+    waitFor(() -> requests.size() == 2);
+    result.cancel();
+    assertTrue(requests.get(0).isCancelled());
+    assertTrue(requests.get(1).isCancelled());
+  }
+
+  private PFuture<String> newRequest() {
+    Promise<String> promise = Promise.newPromise();
+    requests.add(promise);
+    return promise.getFuture();
+  }
+
+  private static void waitFor(Condition condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.isTrue()) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Timed out");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private interface Condition {
+    boolean isTrue();
+  }
+}
@@ -0,0 +1,71 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverAllValues() {
+    long previousHighest = -1;
+    for (int i = 0; i < LatencyHistogram.indexOf(Long.MAX_VALUE) + 1; i++) {
+      assertEquals(previousHighest + 1, LatencyHistogram.lowestValueAt(i));
+      assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.lowestValueAt(i)));
+      assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.highestValueAt(i)));
+      previousHighest = LatencyHistogram.highestValueAt(i);
+    }
+    assertEquals(Long.MAX_VALUE, previousHighest);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(10000, histogram.count());
+    assertWithinPrecision(5_000_000, histogram.valueAtPercentile(50));
+    assertWithinPrecision(9_900_000, histogram.valueAtPercentile(99));
+    assertWithinPrecision(9_990_000, histogram.valueAtPercentile(99.9));
+    assertWithinPrecision(10_000_000, histogram.max());
+    assertWithinPrecision(5_000_500, (long) histogram.mean());
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.valueAtPercentile(99));
+    assertEquals(0, histogram.max());
+    assertEquals(0.0, histogram.mean(), 0.0);
+  }
+
+  @Test
+  public void testCoordinatedOmissionCorrection() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // One sample stalled for 100 intervals, so 99 samples were never taken
+    histogram.recordWithExpectedInterval(100_000, 1000);
+    assertEquals(100, histogram.count());
+    assertWithinPrecision(50_000, histogram.valueAtPercentile(50));
+    assertWithinPrecision(1000, histogram.valueAtPercentile(0));
+  }
+
+  @Test
+  public void testAddAndReset() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(10);
+    b.record(20);
+    b.record(30);
+    a.add(b);
+    assertEquals(3, a.count());
+    assertEquals(30, a.max());
+    a.reset();
+    assertEquals(0, a.count());
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 64 + 1);
+  }
+}
@@ -0,0 +1,204 @@
+package se.krka.futures;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open-loop load generator for future pipelines, for sizing executor pools.
+ *
+ * Like {@link WhereDoesItRunTest}, every request is a pipeline of async stages on named executors,
+ * but requests are started at a fixed rate regardless of how many are still in flight, as real clients would.
+ * Latency is measured from the time each request was scheduled to start, not from when the generator got around to
+ * starting it, so a stalled generator or a saturated pool shows up in the latency instead of being hidden by a lower
+ * request rate (coordinated omission). The uncorrected end-to-end latency is reported next to it for comparison.
+ *
+ * The rate is stepped up to find where the pools saturate: past that point the achieved throughput stops
+ * following the target rate, and the corrected latency grows with the duration of the step.
+ *
+ * Arguments, all optional:
+ * <pre>
+ *   --pools io:4,cpu:2         executors and their number of threads
+ *   --stages io:8,cpu,io       pipeline stages: the pool to run on, and how many parallel calls to fan out to
+ *   --work-us 50               busy work per call, in microseconds
+ *   --rates 1000,2000,4000     target rates to step through, in requests per second
+ *   --seconds 5                duration of each step
+ * </pre>
+ */
+public class LoadGenerator {
+
+  private final List<Stage> stages;
+  private final long workNanos;
+
+  private LoadGenerator(List<Stage> stages, long workNanos) {
+    this.stages = stages;
+    this.workNanos = workNanos;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> options = new LinkedHashMap<>();
+    options.put("--pools", "io:4,cpu:2");
+    options.put("--stages", "io:8,cpu,io");
+    options.put("--work-us", "50");
+    options.put("--rates", "1000,2000,4000,8000,16000");
+    options.put("--seconds", "5");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!options.containsKey(args[i])) {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+      options.put(args[i], args[i + 1]);
+    }
+    System.out.println("Options: " + options);
+
+    final Map<String, ExecutorService> pools = new LinkedHashMap<>();
+    for (String pool : options.get("--pools").split(",")) {
+      final String[] parts = pool.split(":");
+      pools.put(parts[0], newPool(parts[0], Integer.parseInt(parts[1])));
+    }
+    final List<Stage> stages = new ArrayList<>();
+    for (String stage : options.get("--stages").split(",")) {
+      final String[] parts = stage.split(":");
+      final ExecutorService pool = pools.get(parts[0]);
+      if (pool == null) {
+        throw new IllegalArgumentException("Unknown pool: " + parts[0]);
+      }
+      stages.add(new Stage(stages.size() + ":" + stage, pool, parts.length > 1 ? Integer.parseInt(parts[1]) : 1));
+    }
+
+    final LoadGenerator generator = new LoadGenerator(stages, TimeUnit.MICROSECONDS.toNanos(
+            Long.parseLong(options.get("--work-us"))));
+    final long seconds = Long.parseLong(options.get("--seconds"));
+    System.out.printf("%10s %10s %10s %10s %10s %10s %12s %10s%n",
+            "target/s", "achieved/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "uncorr p99", "incomplete");
+    for (String rate : options.get("--rates").split(",")) {
+      generator.run(Integer.parseInt(rate), seconds);
+    }
+    pools.values().forEach(ExecutorService::shutdownNow);
+  }
+
+  private void run(int rate, long seconds) throws InterruptedException {
+    final Report report = new Report(stages);
+    final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+    final long requests = rate * seconds;
+    final AtomicLong lastCompletion = new AtomicLong();
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    final long start = System.nanoTime();
+    for (long i = 0; i < requests; i++) {
+      final long scheduled = start + i * interval;
+      final long delay = scheduled - System.nanoTime();
+      if (delay > 0) {
+        LockSupport.parkNanos(delay);
+      }
+      final long sent = System.nanoTime();
+      inFlight.incrementAndGet();
+      pipeline(scheduled, report).whenDone((value, throwable) -> {
+        final long now = System.nanoTime();
+        report.endToEnd.record(now - scheduled);
+        report.uncorrected.record(now - sent);
+        lastCompletion.accumulateAndGet(now, Math::max);
+        inFlight.decrementAndGet();
+      });
+    }
+
+    // Give the requests in flight a while to finish, but do not wait forever on a saturated topology
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(10, seconds));
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    final long completed = report.endToEnd.count();
+    final double elapsed = (Math.max(lastCompletion.get(), start + 1) - start) / 1e9;
+    report.print(rate, completed / elapsed, inFlight.get());
+  }
+
+  /**
+   * Runs the stages one after the other, recording how long each stage took from the end of the previous one,
+   * which includes the time spent waiting in the executor queues.
+   */
+  private PFuture<Long> pipeline(long scheduled, Report report) {
+    PFuture<Long> future = PFuture.completed(scheduled);
+    for (int i = 0; i < stages.size(); i++) {
+      final Stage stage = stages.get(i);
+      final LatencyHistogram histogram = report.stages.get(i);
+      future = future.flatMap(previous -> {
+        final List<PFuture<Long>> calls = new ArrayList<>(stage.fanout);
+        for (int call = 0; call < stage.fanout; call++) {
+          calls.add(PFuture.completed(previous).mapAsync(this::work, stage.pool));
+        }
+        return PFuture.allAsList(calls).map(done -> {
+          final long now = System.nanoTime();
+          histogram.record(now - previous);
+          return now;
+        });
+      });
+    }
+    return future;
+  }
+
+  private long work(long input) {
+    final long end = System.nanoTime() + workNanos;
+    while (System.nanoTime() < end) {
+      Thread.onSpinWait();
+    }
+    return input;
+  }
+
+  private static ExecutorService newPool(String name, int threads) {
+    final AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      final Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static class Stage {
+    private final String name;
+    private final ExecutorService pool;
+    private final int fanout;
+
+    private Stage(String name, ExecutorService pool, int fanout) {
+      this.name = name;
+      this.pool = pool;
+      this.fanout = fanout;
+    }
+  }
+
+  private static class Report {
+    private final List<Stage> stageNames;
+    private final List<LatencyHistogram> stages = new ArrayList<>();
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram uncorrected = new LatencyHistogram();
+
+    private Report(List<Stage> stageNames) {
+      this.stageNames = stageNames;
+      for (int i = 0; i < stageNames.size(); i++) {
+        stages.add(new LatencyHistogram());
+      }
+    }
+
+    private void print(int rate, double achieved, int incomplete) {
+      System.out.printf("%10d %10.0f %10.3f %10.3f %10.3f %10.3f %12.3f %10d%n",
+              rate, achieved, millis(endToEnd.valueAtPercentile(50)), millis(endToEnd.valueAtPercentile(99)),
+              millis(endToEnd.valueAtPercentile(99.9)), millis(endToEnd.max()),
+              millis(uncorrected.valueAtPercentile(99)), incomplete);
+      for (int i = 0; i < stages.size(); i++) {
+        final LatencyHistogram stage = stages.get(i);
+        System.out.printf("%21s %10.3f %10.3f %10.3f %10.3f%n", "stage " + stageNames.get(i).name,
+                millis(stage.valueAtPercentile(50)), millis(stage.valueAtPercentile(99)),
+                millis(stage.valueAtPercentile(99.9)), millis(stage.max()));
+      }
+    }
+
+    private static double millis(long nanos) {
+      return nanos / 1e6;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeekResultTest {
+
+  @Test
+  public void testPeekIncomplete() {
+    Promise<String> promise = Promise.newPromise();
+    assertNull(promise.getFuture().peekResult());
+  }
+
+  @Test
+  public void testPeekValue() {
+    Result<String> result = PFuture.completed("x").peekResult();
+    assertTrue(result.isValue());
+    assertFalse(result.isException());
+    assertEquals("x", result.getValue());
+    assertNull(result.getException());
+  }
+
+  @Test
+  public void testPeekExceptionIsNotWrapped() {
+    RuntimeException e = new RuntimeException("boom");
+    PFuture<String> future = PFuture.<String>completed("x").map(s -> {
+      throw e;
+    });
+
+    Result<String> result = future.peekResult();
+    assertTrue(result.isException());
+    assertSame(e, result.getException());
+    assertSame(e, future.getException());
+    assertEquals("PFuture(exception=boom)", future.toString());
+  }
+
+  @Test
+  public void testFold() {
+    RuntimeException e = new RuntimeException("boom");
+    Promise<String> promise = Promise.newPromise();
+    PFuture<Object> folded = promise.getFuture().map(s -> s).fold(s -> s, t -> t);
+    PFuture<Object> failed = PFuture.exceptionallyCompleted(e).fold(s -> s, t -> t);
+    assertFalse(folded.isDone());
+
+    promise.completeExceptionally(e);
+    assertSame(e, folded.getValue());
+    assertSame(e, failed.getValue());
+    assertEquals("x", PFuture.completed("x").fold(s -> s, t -> "error").getValue());
+    assertEquals(Integer.valueOf(1), PFuture.completed("x").peekResult().fold(String::length, t -> -1));
+  }
+
+  @Test
+  public void testFoldFunctionFails() {
+    RuntimeException e = new RuntimeException("boom");
+    PFuture<String> folded = PFuture.exceptionallyCompleted(new IllegalStateException()).fold(s -> "", t -> {
+      throw e;
+    });
+    assertSame(e, folded.getException());
+  }
+
+  @Test
+  public void testFoldWithAffinity() throws Exception {
+    ExecutorService executor = Util.newExecutor("fold");
+    try {
+      Promise<String> promise = Promise.newPromise();
+      AtomicReference<Thread> thread = new AtomicReference<>();
+      PFuture<String> folded = promise.getFuture()
+              .withAffinity(executor)
+              .fold(s -> s, t -> {
+                thread.set(Thread.currentThread());
+                return "recovered";
+              })
+              .map(s -> s + "!");
+      promise.completeExceptionally(new RuntimeException());
+
+      assertEquals("recovered!", folded.toCompletableFuture().get(10, TimeUnit.SECONDS));
+      assertTrue(thread.get().getName().startsWith("fold"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testWhenDone() {
+    RuntimeException e = new RuntimeException();
+    Promise<String> promise = Promise.newPromise();
+    AtomicReference<Throwable> seen = new AtomicReference<>();
+    promise.getFuture().map(s -> s).whenDone((value, throwable) -> seen.set(throwable));
+
+    promise.completeExceptionally(e);
+    assertSame(e, seen.get());
+  }
+}
@@ -0,0 +1,118 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PendingFuturesTest {
+
+  @Before
+  public void setUp() {
+    PendingFutures.enable();
+  }
+
+  @After
+  public void tearDown() {
+    PendingFutures.disable();
+    PendingFutures.setStackSampleInterval(64);
+    PendingFutures.setLeakListener(System.err::println);
+  }
+
+  @Test
+  public void testDisabled() {
+    PendingFutures.disable();
+    new SimpleFuture<String>();
+    Promise.newPromise();
+    assertTrue(PendingFutures.pendingBySite().isEmpty());
+  }
+
+  @Test
+  public void testCountsPendingFuturesBySite() {
+    final List<SimpleFuture<String>> futures = List.of(newFuture(), newFuture(), newFuture());
+    final Promise<String> promise = Promise.newPromise();
+
+    final Map<String, Long> pending = PendingFutures.pendingBySite();
+    assertEquals(pending.toString(), 2, pending.size());
+    assertEquals(3L, (long) pending.get(siteIn(pending, "newFuture")));
+
+    futures.get(0).complete("value");
+    futures.get(1).cancel();
+    promise.complete("value");
+    assertEquals(Map.of(siteIn(pending, "newFuture"), 1L), PendingFutures.pendingBySite());
+  }
+
+  @Test
+  public void testDumpsTheOldestFutures() throws Exception {
+    final SimpleFuture<String> old = newFuture();
+    Thread.sleep(20);
+    final SimpleFuture<String> young = newFuture();
+
+    final List<PendingFutures.Pending> oldest = PendingFutures.oldest(Duration.ofMillis(10), 10);
+    assertEquals(1, oldest.size());
+    assertTrue(oldest.get(0).getSite().startsWith(siteOf("newFuture")));
+    assertTrue(oldest.get(0).getAgeNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    // The first future from each site has its stack sampled
+    assertNotNull(oldest.get(0).getCreationStack());
+
+    final String dump = PendingFutures.dump(Duration.ZERO, 10);
+    assertTrue(dump, dump.startsWith("Pending futures older than PT0S: 2"));
+    assertTrue(dump, dump.contains("at " + siteOf("newFuture")));
+    old.complete("done");
+    young.complete("done");
+  }
+
+  @Test
+  public void testReportsLeakedPromises() throws Exception {
+    final List<String> leaks = new CopyOnWriteArrayList<>();
+    PendingFutures.setLeakListener(leaks::add);
+    PendingFutures.setStackSampleInterval(1);
+    final PFuture<String> future = leakPromise();
+    completedPromise();
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (leaks.isEmpty() && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(1, leaks.size());
+    assertTrue(leaks.get(0), leaks.get(0).startsWith("Promise created at " + siteOf("leakPromise")));
+    final Map<String, Long> leaked = PendingFutures.leaksBySite();
+    assertEquals(Map.of(siteIn(leaked, "leakPromise"), 1L), leaked);
+    assertTrue(PendingFutures.pendingBySite().isEmpty());
+    // The future itself is still reachable, but can never complete
+    assertTrue(!future.isDone());
+  }
+
+  private static SimpleFuture<String> newFuture() {
+    return new SimpleFuture<>();
+  }
+
+  private static PFuture<String> leakPromise() {
+    return Promise.<String>newPromise().getFuture();
+  }
+
+  private static void completedPromise() {
+    Promise.newPromise().complete("value");
+  }
+
+  private static String siteOf(String method) {
+    return PendingFuturesTest.class.getName() + "." + method + "(";
+  }
+
+  private static String siteIn(Map<String, Long> counts, String method) {
+    return counts.keySet().stream()
+            .filter(site -> site.startsWith(siteOf(method)))
+            .findFirst()
+            .orElseThrow(() -> new AssertionError(method + " not in " + counts));
+  }
+}
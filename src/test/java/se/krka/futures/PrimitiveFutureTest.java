@@ -0,0 +1,187 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrimitiveFutureTest {
+
+  @Test
+  public void testPrimitivePipeline() throws Exception {
+    IntFuture source = new IntFuture();
+    DoubleFuture result = source
+            .map(x -> x + 1)
+            .mapToLong(x -> x * 1_000_000_000L)
+            .mapToDouble(x -> x / 2.0);
+    assertFalse(result.isDone());
+    source.complete(1);
+    assertEquals(1e9, result.join(), 0.0);
+  }
+
+  @Test
+  public void testMapToObjAndBack() throws Exception {
+    SimpleFuture<String> result = LongFuture.completed(42)
+            .mapToObj(Long::toString)
+            .mapToInt(String::length)
+            .mapToObj(length -> "length: " + length);
+    assertEquals("length: 2", result.join());
+  }
+
+  @Test
+  public void testFirstCompletionWins() throws Exception {
+    LongFuture future = new LongFuture();
+    future.complete(1);
+    future.complete(2);
+    future.completeExceptionally(new IllegalStateException());
+    assertEquals(1, future.join());
+  }
+
+  @Test
+  public void testExceptionPropagates() throws Exception {
+    IllegalArgumentException exception = new IllegalArgumentException();
+    DoubleFuture source = new DoubleFuture();
+    IntFuture result = source.map(x -> x * 2).mapToInt(x -> (int) x);
+    source.completeExceptionally(exception);
+    try {
+      result.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testTransformThrows() throws Exception {
+    IllegalArgumentException exception = new IllegalArgumentException();
+    IntFuture result = IntFuture.completed(1).map(x -> {
+      throw exception;
+    });
+    try {
+      result.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    IntFuture future = new IntFuture();
+    future.cancel();
+    assertTrue(future.isDone());
+    try {
+      future.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals(CancellationException.class, e.getCause().getClass());
+    }
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testJoinTimeout() throws Exception {
+    new LongFuture().join(10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testJoinBlocksUntilCompleted() throws Exception {
+    LongFuture future = new LongFuture();
+    new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      future.complete(17);
+    }).start();
+    assertEquals(17, future.join());
+  }
+
+  @Test
+  public void testBridges() throws Exception {
+    LongFuture source = new LongFuture();
+    CompletableFuture<Long> completableFuture = source.toCompletableFuture();
+    PFuture<Long> pFuture = source.toPFuture();
+    source.complete(123);
+    assertEquals(123L, completableFuture.join().longValue());
+    assertEquals(123L, pFuture.getValue().longValue());
+
+    IntFuture fromStage = IntFuture.fromCompletionStage(CompletableFuture.supplyAsync(() -> 7));
+    assertEquals(7, fromStage.join());
+  }
+
+  @Test
+  public void testFromCompletionStageWithNull() throws Exception {
+    IntFuture future = IntFuture.fromCompletionStage(CompletableFuture.completedFuture(null));
+    try {
+      future.join();
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals(NullPointerException.class, e.getCause().getClass());
+    }
+  }
+
+  @Test
+  public void testLongPrimitiveChain() throws Exception {
+    LongFuture head = new LongFuture();
+    LongFuture tail = head;
+    for (int i = 0; i < 100_000; i++) {
+      tail = tail.map(x -> x + 1);
+    }
+    head.complete(0);
+    assertEquals(100_000, tail.join());
+  }
+
+  @Test
+  public void testThrowingListenerDoesNotStopOtherListeners() throws Exception {
+    final Thread thread = Thread.currentThread();
+    final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+    final List<Throwable> reported = new ArrayList<>();
+    thread.setUncaughtExceptionHandler((t, e) -> reported.add(e));
+    try {
+      final AssertionError error = new AssertionError("listener failed");
+      IntFuture source = new IntFuture();
+      source.map(x -> {
+        throw error;
+      });
+      IntFuture after = source.map(x -> x + 1).map(x -> x * 2);
+
+      source.complete(1);
+      assertEquals(4, after.join());
+      assertEquals(List.of(error), reported);
+
+      // Nothing is left behind on the trampoline of the thread
+      IntFuture next = new IntFuture();
+      IntFuture mapped = next.map(x -> x + 1);
+      next.complete(2);
+      assertEquals(3, mapped.join());
+    } finally {
+      thread.setUncaughtExceptionHandler(handler);
+    }
+  }
+
+  @Test
+  public void testTimedOutWaitersAreUnlinked() throws Exception {
+    LongFuture future = new LongFuture();
+    for (int i = 0; i < 100_000; i++) {
+      try {
+        future.join(0, TimeUnit.NANOSECONDS);
+        fail();
+      } catch (TimeoutException e) {
+        // expected
+      }
+    }
+    assertEquals(0, future.pendingCallbacks());
+  }
+}
@@ -0,0 +1,113 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a completed chain only keeps its result reachable, and not the upstream stages
+ * or anything the transforms captured.
+ */
+public class RetainedHeapTest {
+
+  @Test
+  public void testSimpleFutureChain() throws Exception {
+    final List<WeakReference<?>> garbage = new ArrayList<>();
+    final SimpleFuture<String> root = new SimpleFuture<>();
+    final SimpleFuture<String> tail = simpleChain(root, garbage);
+
+    root.complete("x");
+    assertEquals("x-1048576!", tail.join());
+    assertCollected(garbage);
+  }
+
+  @Test
+  public void testSimpleFutureAsyncChain() throws Exception {
+    final ExecutorService executor = Util.newExecutor("retained");
+    try {
+      final List<WeakReference<?>> garbage = new ArrayList<>();
+      final SimpleFuture<String> root = new SimpleFuture<>();
+      final SimpleFuture<String> tail = simpleChain(root, garbage)
+              .thenApplyAsync(s -> s + "?", executor)
+              .withAffinity(executor)
+              .thenApply(s -> s + "!");
+
+      root.complete("x");
+      assertEquals("x-1048576!?!", tail.join(10, TimeUnit.SECONDS));
+      assertCollected(garbage);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testPFutureChain() {
+    final List<WeakReference<?>> garbage = new ArrayList<>();
+    final Promise<String> promise = Promise.newPromise();
+    final PFuture<String> tail = pChain(promise, garbage);
+
+    promise.complete("x");
+    assertEquals("x-1048576!", tail.getValue());
+    assertCollected(garbage);
+  }
+
+  @Test
+  public void testCancelledStageSkipsTransform() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    final SimpleFuture<String> parent = new SimpleFuture<>();
+    final SimpleFuture<String> live = parent.thenApply(s -> s);
+    parent.thenApply(s -> {
+      invocations.incrementAndGet();
+      return s;
+    }).cancel();
+
+    parent.complete("x");
+    assertEquals("x", live.join());
+    assertEquals(0, invocations.get());
+  }
+
+  private static SimpleFuture<String> simpleChain(SimpleFuture<String> root, List<WeakReference<?>> garbage) {
+    final byte[] payload = new byte[1 << 20];
+    final SimpleFuture<String> middle = root.thenApply(s -> s + "-" + payload.length);
+    garbage.add(new WeakReference<>(payload));
+    garbage.add(new WeakReference<>(middle));
+    return middle.thenCompose(s -> SimpleFuture.completed(s + "!"));
+  }
+
+  private static PFuture<String> pChain(Promise<String> promise, List<WeakReference<?>> garbage) {
+    final byte[] payload = new byte[1 << 20];
+    final PFuture<String> middle = promise.getFuture()
+            .map(s -> s + "-" + payload.length)
+            .tap(s -> { });
+    garbage.add(new WeakReference<>(payload));
+    garbage.add(new WeakReference<>(middle));
+    return middle
+            .flatMap(s -> PFuture.completed(s + "!"))
+            .withAffinity(Runnable::run)
+            .orTimeout(Duration.ofMinutes(1), Runnable::run);
+  }
+
+  private static void assertCollected(List<WeakReference<?>> references) {
+    for (int i = 0; i < 100 && references.stream().anyMatch(ref -> ref.get() != null); i++) {
+      System.gc();
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    for (WeakReference<?> reference : references) {
+      assertNull(reference.get());
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package se.krka.futures;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimpleFutureConcurrencyTest {
+
+  private static final int THREADS = 8;
+  private static final int ITERATIONS = 2000;
+  private static final int CALLBACKS_PER_THREAD = 20;
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void setUp() {
+    executor = Executors.newFixedThreadPool(THREADS + 1);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testCallbacksInvokedExactlyOnce() throws Exception {
+    for (int i = 0; i < ITERATIONS; i++) {
+      SimpleFuture<String> future = new SimpleFuture<>();
+      AtomicInteger counter = new AtomicInteger();
+      CountDownLatch start = new CountDownLatch(1);
+
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int thread = 0; thread < THREADS; thread++) {
+        tasks.add(executor.submit(() -> {
+          start.await();
+          for (int j = 0; j < CALLBACKS_PER_THREAD; j++) {
+            future.thenApply(s -> counter.incrementAndGet());
+          }
+          return null;
+        }));
+      }
+      tasks.add(executor.submit(() -> {
+        start.await();
+        future.complete("value");
+        return null;
+      }));
+
+      start.countDown();
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+      assertEquals(THREADS * CALLBACKS_PER_THREAD, counter.get());
+    }
+  }
+
+  @Test
+  public void testConcurrentCompleteHasSingleWinner() throws Exception {
+    for (int i = 0; i < ITERATIONS; i++) {
+      SimpleFuture<Integer> future = new SimpleFuture<>();
+      List<SimpleFuture<Integer>> dependents = new ArrayList<>();
+      for (int j = 0; j < CALLBACKS_PER_THREAD; j++) {
+        dependents.add(future.thenApply(value -> value));
+      }
+      CountDownLatch start = new CountDownLatch(1);
+
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int thread = 0; thread < THREADS; thread++) {
+        final int value = thread;
+        tasks.add(executor.submit(() -> {
+          start.await();
+          future.complete(value);
+          return null;
+        }));
+      }
+
+      start.countDown();
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+      final Integer winner = future.join();
+      for (SimpleFuture<Integer> dependent : dependents) {
+        assertEquals(winner, dependent.join());
+      }
+    }
+  }
+
+  @Test
+  public void testCallbacksInvokedInRegistrationOrder() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      final int index = i;
+      future.thenApply(s -> order.add(index));
+    }
+    future.complete("value");
+    assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+  }
+}
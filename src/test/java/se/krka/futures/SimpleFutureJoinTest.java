@@ -0,0 +1,258 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleFutureJoinTest {
+
+  @Test
+  public void testJoinCompleted() throws Exception {
+    assertEquals("value", SimpleFuture.completed("value").join());
+    assertEquals("value", SimpleFuture.completed("value").join(1, TimeUnit.MILLISECONDS));
+    assertEquals("value", SimpleFuture.completed("value").joinUninterruptibly());
+  }
+
+  @Test
+  public void testJoinException() throws Exception {
+    IllegalArgumentException exception = new IllegalArgumentException();
+    try {
+      SimpleFuture.exceptionallyCompleted(exception).join();
+      fail();
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testJoinBlocksUntilCompleted() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    Thread completer = new Thread(() -> {
+      sleep(50);
+      future.complete("value");
+    });
+    completer.start();
+    assertEquals("value", future.join());
+    completer.join();
+  }
+
+  @Test
+  public void testManyWaiters() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    int threads = 10;
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      new Thread(() -> {
+        try {
+          assertEquals("value", future.join());
+          done.countDown();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }).start();
+    }
+    sleep(50);
+    future.complete("value");
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testJoinTimeout() throws Exception {
+    new SimpleFuture<String>().join(10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testCompleteAfterTimeout() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    try {
+      future.join(1, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (TimeoutException e) {
+      // expected
+    }
+    // The abandoned waiter must not interfere with completion
+    future.complete("value");
+    assertEquals("value", future.join());
+  }
+
+  @Test
+  public void testJoinInterrupted() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread waiter = new Thread(() -> {
+      try {
+        future.join();
+      } catch (Throwable e) {
+        thrown.set(e);
+      }
+    });
+    waiter.start();
+    sleep(50);
+    waiter.interrupt();
+    waiter.join();
+    assertEquals(InterruptedException.class, thrown.get().getClass());
+  }
+
+  @Test
+  public void testJoinUninterruptibly() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    AtomicReference<String> value = new AtomicReference<>();
+    AtomicReference<Boolean> interrupted = new AtomicReference<>();
+    Thread waiter = new Thread(() -> {
+      try {
+        value.set(future.joinUninterruptibly());
+        interrupted.set(Thread.currentThread().isInterrupted());
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    waiter.start();
+    sleep(50);
+    waiter.interrupt();
+    sleep(50);
+    future.complete("value");
+    waiter.join();
+    assertEquals("value", value.get());
+    assertTrue(interrupted.get());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Test
+  public void testTimedOutWaitersAreUnlinked() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    for (int i = 0; i < 200_000; i++) {
+      try {
+        future.join(0, TimeUnit.NANOSECONDS);
+        fail();
+      } catch (TimeoutException e) {
+        // expected
+      }
+    }
+    assertEquals(0, future.pendingCallbacks());
+  }
+
+  @Test
+  public void testConcurrentTimedOutWaitersAreUnlinked() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    SimpleFuture<String> stage = future.thenApply(value -> value);
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        tasks.add(executor.submit(() -> {
+          for (int i = 0; i < 50_000; i++) {
+            try {
+              future.join(0, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+              // expected
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // Waiters that gave up below another thread's waiter are swept when they give up
+    try {
+      future.join(0, TimeUnit.NANOSECONDS);
+      fail();
+    } catch (TimeoutException e) {
+      // expected
+    }
+    assertEquals(1, future.pendingCallbacks());
+    future.complete("value");
+    assertEquals("value", stage.join());
+  }
+
+  @Test
+  public void testTimedOutWaitersBelowLiveCallbacksAreUnlinked() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    List<SimpleFuture<String>> stages = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      int before = future.pendingCallbacks();
+      Thread waiter = new Thread(() -> {
+        try {
+          future.join(20, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          // expected
+        }
+      });
+      waiter.start();
+      while (future.pendingCallbacks() == before) {
+        Thread.yield();
+      }
+      // Bury the parked waiter under a live callback before it gives up
+      stages.add(future.thenApply(value -> value));
+      waiter.join();
+    }
+    assertEquals(stages.size(), future.pendingCallbacks());
+    future.complete("value");
+    for (SimpleFuture<String> stage : stages) {
+      assertEquals("value", stage.join());
+    }
+  }
+
+  @Test
+  public void testUnlinkingWaitersKeepsConcurrentCallbacks() throws Exception {
+    SimpleFuture<String> future = new SimpleFuture<>();
+    int threads = 4;
+    int callbacks = 20_000;
+    AtomicInteger invoked = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+    try {
+      List<Future<?>> tasks = new ArrayList<>();
+      tasks.add(executor.submit(() -> {
+        for (int i = 0; i < callbacks; i++) {
+          future.thenApply(value -> invoked.incrementAndGet());
+        }
+        return null;
+      }));
+      for (int t = 0; t < threads; t++) {
+        tasks.add(executor.submit(() -> {
+          for (int i = 0; i < 5_000; i++) {
+            try {
+              future.join(1, TimeUnit.MICROSECONDS);
+            } catch (TimeoutException e) {
+              // expected
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    future.complete("value");
+    assertEquals(callbacks, invoked.get());
+  }
+}
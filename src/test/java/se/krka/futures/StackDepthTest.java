@@ -0,0 +1,98 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StackDepthTest {
+
+  private static final int DEPTH = 100_000;
+
+  @Test
+  public void testLongApplyChain() throws Exception {
+    SimpleFuture<Integer> head = new SimpleFuture<>();
+    SimpleFuture<Integer> tail = head;
+    for (int i = 0; i < DEPTH; i++) {
+      tail = tail.thenApply(x -> x + 1);
+    }
+    head.complete(0);
+    assertEquals(DEPTH, tail.join().intValue());
+  }
+
+  @Test
+  public void testLongComposeChain() throws Exception {
+    SimpleFuture<Integer> head = new SimpleFuture<>();
+    SimpleFuture<Integer> tail = head;
+    for (int i = 0; i < DEPTH; i++) {
+      final SimpleFuture<Integer> inner = new SimpleFuture<>();
+      tail = tail.thenCompose(x -> {
+        inner.complete(x + 1);
+        return inner;
+      });
+    }
+    head.complete(0);
+    assertEquals(DEPTH, tail.join().intValue());
+  }
+
+  @Test
+  public void testLongComposeChainCompletedInReverse() throws Exception {
+    // Each stage waits for the next one, and the innermost future is completed last
+    SimpleFuture<Integer> innermost = new SimpleFuture<>();
+    SimpleFuture<Integer> outer = innermost;
+    for (int i = 0; i < DEPTH; i++) {
+      final SimpleFuture<Integer> inner = outer;
+      outer = SimpleFuture.completed(0).thenCompose(x -> inner);
+    }
+    innermost.complete(42);
+    assertEquals(42, outer.join().intValue());
+  }
+
+  @Test
+  public void testThrowingCallbackIsReportedToUncaughtExceptionHandler() throws Exception {
+    final Thread thread = Thread.currentThread();
+    final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+    final List<Throwable> reported = new ArrayList<>();
+    thread.setUncaughtExceptionHandler((t, e) -> reported.add(e));
+    try {
+      final RuntimeException failure = new RuntimeException("callback failed");
+      Promise<String> promise = Promise.newPromise();
+      promise.getFuture().whenDone((value, throwable) -> {
+        throw failure;
+      });
+      PFuture<String> after = promise.getFuture().map(value -> value + "!");
+
+      // Completing the promise does not throw, and the stage after the throwing callback still completes
+      promise.complete("x");
+      assertEquals("x!", after.getValue());
+      assertEquals(List.of(failure), reported);
+      assertTrue(promise.getFuture().isCompletedNormally());
+    } finally {
+      thread.setUncaughtExceptionHandler(handler);
+    }
+  }
+
+  @Test
+  public void testThrowingCallbackOnCompletedFutureIsReportedToUncaughtExceptionHandler() {
+    final Thread thread = Thread.currentThread();
+    final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+    final List<Throwable> reported = new ArrayList<>();
+    thread.setUncaughtExceptionHandler((t, e) -> reported.add(e));
+    try {
+      final RuntimeException failure = new RuntimeException("boom");
+      final PFuture<Integer> future = PFuture.completed(1);
+
+      // Registering the callback does not throw
+      future.whenDone((value, throwable) -> {
+        throw failure;
+      });
+      assertEquals(List.of(failure), reported);
+      assertEquals(2, (int) future.map(value -> value + 1).getValue());
+    } finally {
+      thread.setUncaughtExceptionHandler(handler);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StageInstrumentationTest {
+
+  @After
+  public void tearDown() {
+    StageInstrumentation.setSink(null);
+  }
+
+  @Test
+  public void testDisabledReturnsSameExecutor() {
+    Executor executor = Runnable::run;
+    assertSame(executor, StageInstrumentation.instrument("stage", executor));
+  }
+
+  @Test
+  public void testQueueWaitAndExecution() throws Exception {
+    StageStats stats = new StageStats();
+    StageInstrumentation.setSink(stats);
+    ExecutorService executor = Util.newExecutor("worker");
+    try {
+      CountDownLatch blocker = new CountDownLatch(1);
+      executor.execute(() -> awaitQuietly(blocker));
+
+      SimpleFuture<String> future = new SimpleFuture<>();
+      SimpleFuture<String> result = future.thenApplyAsync("slow", s -> {
+        sleep(20);
+        return s + "!";
+      }, executor);
+      future.complete("x");
+      // The stage waits in the queue until the blocker is released
+      Thread.sleep(50);
+      blocker.countDown();
+
+      assertEquals("x!", result.join(10, TimeUnit.SECONDS));
+      StageStats.Stage stage = awaitStage(stats, "slow");
+      assertEquals(1, stage.count());
+      assertTrue(stage.queueWait().max() >= TimeUnit.MILLISECONDS.toNanos(40));
+      assertTrue(stage.execution().max() >= TimeUnit.MILLISECONDS.toNanos(20));
+      assertEquals(Map.of("worker", 1L), stage.threads());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testPFutureStages() throws Exception {
+    List<String> stages = new CopyOnWriteArrayList<>();
+    StageInstrumentation.setSink((stage, enqueued, started, finished, thread) -> {
+      assertTrue(enqueued <= started && started <= finished);
+      stages.add(stage + "@" + thread.getName());
+    });
+    ExecutorService executor = Util.newExecutor("pfuture");
+    try {
+      Promise<String> promise = Promise.newPromise();
+      PFuture<String> result = promise.getFuture()
+              .mapAsync("first", s -> s + "1", executor)
+              .withAffinity(executor)
+              .mapAsync("second", s -> s + "2", executor)
+              .map(s -> s + "3");
+      promise.complete("x");
+
+      assertEquals("x123", result.toCompletableFuture().get(10, TimeUnit.SECONDS));
+      assertEquals(List.of("first@pfuture", "second@pfuture"), stages);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testStatsForUnknownStage() {
+    assertNull(new StageStats().get("missing"));
+  }
+
+  private static StageStats.Stage awaitStage(StageStats stats, String name) throws InterruptedException {
+    // The sink is called after the stage has completed its future, and the threads are recorded last
+    for (int i = 0; i < 1000 && (stats.get(name) == null || stats.get(name).threads().isEmpty()); i++) {
+      Thread.sleep(1);
+    }
+    return stats.get(name);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
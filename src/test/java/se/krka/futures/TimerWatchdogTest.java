@@ -0,0 +1,95 @@
+package se.krka.futures;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWatchdogTest {
+  private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", Duration.ofMillis(1), 64);
+
+  @After
+  public void tearDown() {
+    timer.stop();
+    StageInstrumentation.setSink(null);
+  }
+
+  @Test
+  public void testMeasuresLag() throws Exception {
+    final StageStats stats = new StageStats();
+    StageInstrumentation.setSink(stats);
+    try (TimerWatchdog watchdog = new TimerWatchdog(Duration.ofMillis(5), Duration.ofSeconds(1))) {
+      watchdog.watch("test", timer).watchJdkDelayScheduler();
+      waitUntil(() -> watchdog.lag("test").count() >= 5
+              && watchdog.lag(TimerWatchdog.JDK_DELAY_SCHEDULER).count() >= 5);
+      assertTrue(watchdog.lag("test").valueAtPercentile(50) < TimeUnit.MILLISECONDS.toNanos(100));
+      assertEquals(0, watchdog.stalls("test"));
+      assertTrue(stats.get("timer:test").count() >= 5);
+    }
+  }
+
+  @Test
+  public void testDetectsStalledTimer() throws Exception {
+    final List<String> reports = new CopyOnWriteArrayList<>();
+    try (TimerWatchdog watchdog = new TimerWatchdog(Duration.ofMillis(5), Duration.ofMillis(50))) {
+      watchdog.setStallListener(reports::add);
+      watchdog.watch("test", timer);
+      waitUntil(() -> watchdog.lag("test").count() > 0);
+
+      timer.newTimeout(TimerWatchdogTest::slowCallback, Duration.ZERO);
+      // The stall is counted just before it is reported, so wait for the report
+      waitUntil(() -> !reports.isEmpty());
+      assertTrue(watchdog.stalls("test") > 0);
+      assertTrue(Arrays.stream(watchdog.lastStallStack("test"))
+              .anyMatch(element -> element.getMethodName().equals("slowCallback")));
+      assertTrue(reports.get(0), reports.get(0).startsWith("Timer test is stalled"));
+      assertTrue(reports.get(0), reports.get(0).contains("slowCallback"));
+
+      // The late probe still fires once the callback is done, and its lag is recorded
+      waitUntil(() -> watchdog.lag("test").max() >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+  }
+
+  @Test
+  public void testDetectsStalledJdkDelayScheduler() throws Exception {
+    try (TimerWatchdog watchdog = new TimerWatchdog(Duration.ofMillis(5), Duration.ofMillis(50))) {
+      watchdog.setStallListener(report -> { });
+      watchdog.watchJdkDelayScheduler();
+      waitUntil(() -> watchdog.lag(TimerWatchdog.JDK_DELAY_SCHEDULER).count() > 0);
+
+      CompletableFuture.delayedExecutor(1, TimeUnit.MILLISECONDS, Runnable::run)
+              .execute(TimerWatchdogTest::slowCallback);
+      waitUntil(() -> watchdog.stalls(TimerWatchdog.JDK_DELAY_SCHEDULER) > 0);
+      assertTrue(Arrays.stream(watchdog.lastStallStack(TimerWatchdog.JDK_DELAY_SCHEDULER))
+              .anyMatch(element -> element.getMethodName().equals("slowCallback")));
+    }
+  }
+
+  private static void slowCallback() {
+    try {
+      Thread.sleep(300);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitUntil(Condition condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.test()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  private interface Condition {
+    boolean test();
+  }
+}
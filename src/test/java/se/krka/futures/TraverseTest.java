@@ -0,0 +1,137 @@
+package se.krka.futures;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TraverseTest {
+
+  @Test
+  public void testKeepsMaxInFlight() {
+    final Deque<Promise<Integer>> pending = new ArrayDeque<>();
+    final Deque<Integer> inputs = new ArrayDeque<>();
+    final PFuture<List<Integer>> result = PFuture.traverse(range(100), input -> {
+      final Promise<Integer> promise = Promise.newPromise();
+      pending.push(promise);
+      inputs.push(input);
+      return promise.getFuture().map(value -> value * 10);
+    }, 4);
+
+    assertEquals(4, pending.size());
+    while (!pending.isEmpty()) {
+      // Complete the most recent call first, so the calls complete out of order
+      pending.pop().complete(inputs.pop());
+      assertTrue(pending.size() <= 4);
+    }
+    assertEquals(range(100).stream().map(value -> value * 10).collect(Collectors.toList()), result.getValue());
+  }
+
+  @Test
+  public void testUnorderedIsInCompletionOrder() {
+    final List<Promise<String>> promises = new ArrayList<>();
+    final PFuture<List<String>> result = PFuture.traverseUnordered(List.of("a", "b", "c"), input -> {
+      final Promise<String> promise = Promise.newPromise();
+      promises.add(promise);
+      return promise.getFuture();
+    }, 3);
+    promises.get(2).complete("c");
+    promises.get(0).complete("a");
+    promises.get(1).complete("b");
+    assertEquals(List.of("c", "a", "b"), result.getValue());
+  }
+
+  @Test
+  public void testFailsFastAndCancelsCallsInFlight() {
+    final List<Promise<Integer>> started = new ArrayList<>();
+    final PFuture<List<Integer>> result = PFuture.traverse(range(10), input -> {
+      final Promise<Integer> promise = Promise.newPromise();
+      started.add(promise);
+      return promise.getFuture();
+    }, 3);
+
+    final IllegalStateException exception = new IllegalStateException();
+    started.get(1).completeExceptionally(exception);
+    assertSame(exception, result.getException());
+    assertEquals(3, started.size());
+    assertTrue(started.get(0).isCancelled());
+    assertTrue(started.get(2).isCancelled());
+  }
+
+  @Test
+  public void testCancelCancelsCallsInFlight() {
+    final List<Promise<Integer>> started = new ArrayList<>();
+    final PFuture<List<Integer>> result = PFuture.traverse(range(10), input -> {
+      final Promise<Integer> promise = Promise.newPromise();
+      started.add(promise);
+      return promise.getFuture();
+    }, 2);
+    started.get(0).complete(0);
+    result.cancel();
+    assertEquals(3, started.size());
+    assertTrue(started.get(1).isCancelled());
+    assertTrue(started.get(2).isCancelled());
+  }
+
+  @Test
+  public void testFunctionThrows() {
+    final IllegalArgumentException exception = new IllegalArgumentException();
+    final PFuture<List<Integer>> result = PFuture.traverse(range(10), input -> {
+      if (input == 5) {
+        throw exception;
+      }
+      return PFuture.completed(input);
+    }, 2);
+    assertSame(exception, result.getException());
+  }
+
+  @Test
+  public void testCompletedCallsDoNotRecurse() {
+    final PFuture<List<Integer>> result = PFuture.traverse(range(100_000), PFuture::completed, 16);
+    assertEquals(100_000, result.getValue().size());
+    assertEquals(99_999, (int) result.getValue().get(99_999));
+  }
+
+  @Test
+  public void testIterableAndEmpty() {
+    final Iterable<Integer> iterable = () -> range(5).iterator();
+    assertEquals(range(5), PFuture.traverse(iterable, PFuture::completed, 2).getValue());
+    assertEquals(List.of(), PFuture.traverse(List.of(), PFuture::completed, 2).getValue());
+  }
+
+  @Test
+  public void testConcurrentCompletions() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final AtomicInteger inFlight = new AtomicInteger();
+      final AtomicInteger maxInFlight = new AtomicInteger();
+      final PFuture<List<Integer>> result = PFuture.traverse(range(10_000), input -> {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        return PFuture.completed(input).mapAsync(value -> {
+          inFlight.decrementAndGet();
+          return value;
+        }, executor);
+      }, 8);
+      assertEquals(range(10_000), result.toCompletableFuture().get(10, TimeUnit.SECONDS));
+      assertTrue("max in flight was " + maxInFlight.get(), maxInFlight.get() <= 8);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<Integer> range(int size) {
+    return IntStream.range(0, size).boxed().collect(Collectors.toList());
+  }
+}